@@ -0,0 +1,61 @@
+package tth;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base32 of a root, as written for every hashed file, into a new String and into a reused array, and back.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base32Benchmark {
+
+    private final byte[] Root = new byte[Tiger.HashSize];
+    private final byte[] Digits = new byte[Base32.encodedLength(Tiger.HashSize)];
+    private final byte[] Decoded = new byte[Tiger.HashSize];
+    private String Encoded;
+
+    @Setup
+    public void Setup() {
+        new Random(24).nextBytes(Root);
+        Encoded = Base32.encode(Root);
+    }
+
+    @Benchmark
+    public String Encode() {
+        return Base32.encode(Root);
+    }
+
+    @Benchmark
+    public byte[] EncodeInto() {
+        Base32.encode(Root, 0, Root.length, Digits, 0);
+        return Digits;
+    }
+
+    @Benchmark
+    public byte[] Decode() {
+        return Base32.decode(Encoded);
+    }
+
+    @Benchmark
+    public byte[] DecodeInto() {
+        Base32.decode(Encoded, 0, Encoded.length(), Decoded, 0);
+        return Decoded;
+    }
+}
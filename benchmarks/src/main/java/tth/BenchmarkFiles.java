@@ -0,0 +1,51 @@
+package tth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Test files for the benchmarks.
+ *
+ * The files are written once to the directory given by the tth.bench.dir property, by default /dev/shm
+ * so they are on tmpfs, and read once after that so the page cache is warm before anything is measured.
+ */
+
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    static String Get(long Size) throws IOException {
+        Path Directory = Paths.get(System.getProperty("tth.bench.dir",
+                Files.isDirectory(Paths.get("/dev/shm")) ? "/dev/shm" : System.getProperty("java.io.tmpdir")));
+        Path File = Directory.resolve("tth-bench-" + Size + ".bin");
+
+        if (!Files.exists(File) || Files.size(File) != Size) {
+            byte[] Data = new byte[1024 * 1024];
+            Random Random = new Random(Size);
+
+            try (OutputStream Output = Files.newOutputStream(File)) {
+                for (long Written = 0; Written < Size; Written += Data.length) {
+                    Random.nextBytes(Data);
+                    Output.write(Data, 0, (int) Math.min(Data.length, Size - Written));
+                }
+            }
+        }
+
+        Warm(File);
+        return File.toString();
+    }
+
+    private static void Warm(Path File) throws IOException {
+        byte[] Data = new byte[1024 * 1024];
+
+        try (InputStream Input = Files.newInputStream(File)) {
+            while (Input.read(Data) > 0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package tth;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ThexThreaded.CompressTree on its own, from leaf hashes of a 1 MB, 64 MB and 1 GB file to the root, with
+ * the tree kept on the heap, off the heap and in a mapped file.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressTreeBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    int Leafs;
+
+    @Param({"Heap", "Direct", "Mapped"})
+    String Storage; // a TreeStore.Backing, which the generated benchmark code can't see.
+
+    private byte[] LeafHashes;
+
+    @Setup
+    public void Setup() {
+        LeafHashes = new byte[Leafs * Tiger.HashSize];
+        new Random(Leafs).nextBytes(LeafHashes);
+    }
+
+    @Benchmark
+    public byte[] CompressTree() throws IOException {
+        ThexThreaded Thex = new ThexThreaded();
+        Thex.Storage = TreeStore.Backing.valueOf(Storage);
+        return Thex.CompressLeafs(LeafHashes);
+    }
+}
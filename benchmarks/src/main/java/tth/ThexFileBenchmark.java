@@ -0,0 +1,54 @@
+package tth;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole file hashes with every engine at its default settings, on files in the page cache.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ThexFileBenchmark {
+
+    @Param({"1048576", "67108864", "1073741824"})
+    long Size;
+
+    private String Filename;
+
+    @Setup
+    public void Setup() throws IOException {
+        Filename = BenchmarkFiles.Get(Size);
+    }
+
+    @Benchmark
+    public byte[] Optimized() throws IOException {
+        return new ThexOptimized().GetTTH(Filename);
+    }
+
+    @Benchmark
+    public byte[] Threaded() throws IOException {
+        return new ThexThreaded().GetTTH_Value(Filename);
+    }
+
+    @Benchmark
+    public byte[] ForkJoin() throws IOException {
+        return new ThexForkJoin().GetTTH(Filename);
+    }
+}
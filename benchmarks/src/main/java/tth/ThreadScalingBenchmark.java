@@ -0,0 +1,63 @@
+package tth;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The threaded engines with a growing number of threads on the same file.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ThreadScalingBenchmark {
+
+    @Param({"1", "2", "4", "8", "16"})
+    int Threads;
+
+    @Param({"1073741824"})
+    long Size;
+
+    private String Filename;
+    private ForkJoinPool Pool;
+
+    @Setup
+    public void Setup() throws IOException {
+        Filename = BenchmarkFiles.Get(Size);
+        Pool = new ForkJoinPool(Threads);
+    }
+
+    @TearDown
+    public void TearDown() {
+        Pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] Threaded() throws IOException {
+        ThexThreaded Thex = new ThexThreaded();
+        Thex.ThreadCount = Threads;
+        return Thex.GetTTH_Value(Filename);
+    }
+
+    @Benchmark
+    public byte[] ForkJoin() throws IOException {
+        return new ThexForkJoin(Pool).GetTTH(Filename);
+    }
+}
@@ -0,0 +1,57 @@
+package tth;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tiger on a single leaf (1024 bytes) and on an internal node (49 bytes: the prefix and two hashes).
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TigerBenchmark {
+
+    @Param({"49", "1024"})
+    int Size;
+
+    private final Tiger TG = new Tiger();
+    private final byte[] Output = new byte[Tiger.HashSize];
+    private byte[] Data;
+
+    @Setup
+    public void Setup() {
+        Data = new byte[Size];
+        new Random(Size).nextBytes(Data);
+    }
+
+    @Benchmark
+    public byte[] ComputeHash() {
+        TG.ComputeHash(Data, 0, Size, Output, 0);
+        return Output;
+    }
+
+    /**
+     * The way the tree hashes a leaf or node, with the prefix byte in front of the data.
+     */
+    @Benchmark
+    public byte[] ComputePrefixedHash() {
+        TG.ComputeHash((byte) 0x00, Data, 0, Size - 1, Output, 0);
+        return Output;
+    }
+}
@@ -1,4 +1,8 @@
 package tth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /* (PD) 2003 The Bitzi Corporation
  * Please see http://bitzi.com/publicdomain for more info.
  *
@@ -17,6 +21,9 @@ package tth;
 public class Base32 {
     private static final String base32Chars =
         "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+    private static final char[] base32CharArray = base32Chars.toCharArray();
+    private static final byte[] base32Bytes = base32Chars.getBytes(StandardCharsets.US_ASCII);
+    private static final char[] hexChars = "0123456789abcdef".toCharArray();
     private static final int[] base32Lookup =
     { 0xFF,0xFF,0x1A,0x1B,0x1C,0x1D,0x1E,0x1F, // '0', '1', '2', '3', '4', '5', '6', '7'
       0xFF,0xFF,0xFF,0xFF,0xFF,0xFF,0xFF,0xFF, // '8', '9', ':', ';', '<', '=', '>', '?'
@@ -35,48 +42,231 @@ public class Base32 {
 	 * @param bytes to convert to String
 	 * @return String
 	 */
-	static String encode(final byte[] bytes)
+	public static String encode(final byte[] bytes)
+    {
+        char[] base32 = new char[encodedLength(bytes.length)];
+        encode(bytes, 0, bytes.length, base32, 0);
+        return new String(base32);
+    }
+
+    /**
+     * @param length number of bytes
+     * @return number of characters they encode to, without padding
+     */
+    public static int encodedLength(final int length)
+    {
+        return (int) (((long) length * 8 + 4) / 5);
+    }
+
+    /**
+     * @param length number of characters
+     * @return number of whole bytes they decode to
+     */
+    public static int decodedLength(final int length)
+    {
+        return (int) ((long) length * 5 / 8);
+    }
+
+    /**
+     * Encodes into the given array, 5 bytes (8 digits) per step.
+     *
+     * @return number of characters written, encodedLength(length)
+     */
+    public static int encode(final byte[] bytes, int offset, int length, final char[] output, int outputOffset)
     {
-        int i = 0, index = 0, digit;
-        int currByte, nextByte;
-        StringBuilder base32 = new StringBuilder((bytes.length+7)*8/5);
+        final int start = outputOffset;
 
-        while(i < bytes.length)
+        for (; length >= 5; length -= 5, offset += 5)
         {
-            currByte = (bytes[i]>=0) ? bytes[i] : (bytes[i]+256); // unsign
+            long group = group(bytes, offset);
+            output[outputOffset] = base32CharArray[(int) (group >>> 35) & 0x1F];
+            output[outputOffset + 1] = base32CharArray[(int) (group >>> 30) & 0x1F];
+            output[outputOffset + 2] = base32CharArray[(int) (group >>> 25) & 0x1F];
+            output[outputOffset + 3] = base32CharArray[(int) (group >>> 20) & 0x1F];
+            output[outputOffset + 4] = base32CharArray[(int) (group >>> 15) & 0x1F];
+            output[outputOffset + 5] = base32CharArray[(int) (group >>> 10) & 0x1F];
+            output[outputOffset + 6] = base32CharArray[(int) (group >>> 5) & 0x1F];
+            output[outputOffset + 7] = base32CharArray[(int) group & 0x1F];
+            outputOffset += 8;
+        }
 
-            /* Is the current digit going to span a byte boundary? */
-            if (index > 3)
-            {
-                if ((i+1)<bytes.length)
-                    nextByte = (bytes[i+1]>=0) ? bytes[i+1] : (bytes[i+1]+256);
-                else
-                    nextByte = 0;
+        if (length > 0)
+        {
+            long group = group(bytes, offset, length);
+            for (int digits = encodedLength(length), shift = 35; digits > 0; digits--, shift -= 5)
+                output[outputOffset++] = base32CharArray[(int) (group >>> shift) & 0x1F];
+        }
 
-                digit = currByte & (0xFF >> index);
-                index = (index + 5) % 8;
-                digit <<= index;
-                digit |= nextByte >> (8 - index);
-                i++;
-            }
-            else
-            {
-                digit = (currByte >> (8 - (index + 5))) & 0x1F;
-                index = (index + 5) % 8;
-                if (index == 0)
-                    i++;
-            }
-            base32.append(base32Chars.charAt(digit));
+        return outputOffset - start;
+    }
+
+    /**
+     * Encodes into the given array as ASCII, 5 bytes (8 digits) per step.
+     *
+     * @return number of bytes written, encodedLength(length)
+     */
+    public static int encode(final byte[] bytes, int offset, int length, final byte[] output, int outputOffset)
+    {
+        final int start = outputOffset;
+
+        for (; length >= 5; length -= 5, offset += 5)
+        {
+            long group = group(bytes, offset);
+            output[outputOffset] = base32Bytes[(int) (group >>> 35) & 0x1F];
+            output[outputOffset + 1] = base32Bytes[(int) (group >>> 30) & 0x1F];
+            output[outputOffset + 2] = base32Bytes[(int) (group >>> 25) & 0x1F];
+            output[outputOffset + 3] = base32Bytes[(int) (group >>> 20) & 0x1F];
+            output[outputOffset + 4] = base32Bytes[(int) (group >>> 15) & 0x1F];
+            output[outputOffset + 5] = base32Bytes[(int) (group >>> 10) & 0x1F];
+            output[outputOffset + 6] = base32Bytes[(int) (group >>> 5) & 0x1F];
+            output[outputOffset + 7] = base32Bytes[(int) group & 0x1F];
+            outputOffset += 8;
+        }
+
+        if (length > 0)
+        {
+            long group = group(bytes, offset, length);
+            for (int digits = encodedLength(length), shift = 35; digits > 0; digits--, shift -= 5)
+                output[outputOffset++] = base32Bytes[(int) (group >>> shift) & 0x1F];
+        }
+
+        return outputOffset - start;
+    }
+
+    /**
+     * Encodes into the buffer as ASCII at its position, which is moved past the digits.
+     */
+    public static void encode(final byte[] bytes, int offset, int length, final ByteBuffer output)
+    {
+        if (output.hasArray())
+        {
+            int written = encode(bytes, offset, length, output.array(), output.arrayOffset() + output.position());
+            output.position(output.position() + written);
+            return;
+        }
+
+        for (; length > 0; length -= 5, offset += 5)
+        {
+            long group = group(bytes, offset, Math.min(length, 5));
+            for (int digits = encodedLength(Math.min(length, 5)), shift = 35; digits > 0; digits--, shift -= 5)
+                output.put(base32Bytes[(int) (group >>> shift) & 0x1F]);
+        }
+    }
+
+    /**
+     * @return 5 bytes as a 40 bit group
+     */
+    private static long group(final byte[] bytes, final int offset)
+    {
+        return ((bytes[offset] & 0xFFL) << 32) | ((bytes[offset + 1] & 0xFFL) << 24) | ((bytes[offset + 2] & 0xFFL) << 16)
+                | ((bytes[offset + 3] & 0xFFL) << 8) | (bytes[offset + 4] & 0xFFL);
+    }
+
+    /**
+     * @return up to 5 bytes as the high bits of a 40 bit group, missing bytes are 0
+     */
+    private static long group(final byte[] bytes, final int offset, final int length)
+    {
+        long group = 0;
+
+        for (int i = 0; i < 5; i++)
+            group = (group << 8) | ((i < length) ? (bytes[offset + i] & 0xFF) : 0);
+        return group;
+    }
+
+    /**
+     * Decodes the characters into the given array, 8 digits (5 bytes) per step. Unlike decode(String)
+     * a character that isn't a base32 digit is an error, the input is a stored value not typed text.
+     *
+     * @return number of bytes written, decodedLength(length)
+     * @throws IllegalArgumentException for a character that isn't a base32 digit
+     */
+    public static int decode(final CharSequence base32, int offset, int length, final byte[] output, int outputOffset)
+    {
+        final int start = outputOffset;
+
+        for (; length >= 8; length -= 8, offset += 8)
+        {
+            long group = 0;
+            for (int i = 0; i < 8; i++)
+                group = (group << 5) | digit(base32.charAt(offset + i));
+
+            for (int shift = 32; shift >= 0; shift -= 8)
+                output[outputOffset++] = (byte) (group >>> shift);
         }
 
-        return base32.toString();
+        if (length > 0)
+        {
+            long group = 0;
+            for (int i = 0; i < 8; i++)
+                group = (group << 5) | ((i < length) ? digit(base32.charAt(offset + i)) : 0);
+
+            for (int bytes = decodedLength(length), shift = 32; bytes > 0; bytes--, shift -= 8)
+                output[outputOffset++] = (byte) (group >>> shift);
+        }
+
+        return outputOffset - start;
+    }
+
+    /**
+     * Decodes ASCII digits into the given array, see decode(CharSequence, int, int, byte[], int).
+     */
+    public static int decode(final byte[] base32, int offset, int length, final byte[] output, int outputOffset)
+    {
+        final int start = outputOffset;
+
+        for (; length > 0; length -= 8, offset += 8)
+        {
+            long group = 0;
+            for (int i = 0; i < 8; i++)
+                group = (group << 5) | ((i < length) ? digit(base32[offset + i]) : 0);
+
+            for (int bytes = decodedLength(Math.min(length, 8)), shift = 32; bytes > 0; bytes--, shift -= 8)
+                output[outputOffset++] = (byte) (group >>> shift);
+        }
+
+        return outputOffset - start;
+    }
+
+    private static int digit(final int c)
+    {
+        int digit = (c >= '0' && c - '0' < base32Lookup.length) ? base32Lookup[c - '0'] : 0xFF;
+
+        if (digit == 0xFF) throw new IllegalArgumentException("not a base32 digit: " + (char) c);
+        return digit;
+    }
+
+    /**
+     * Encodes as lower case hex into the given array.
+     *
+     * @return number of characters written, twice the length
+     */
+    public static int encodeHex(final byte[] bytes, int offset, final int length, final char[] output, int outputOffset)
+    {
+        for (int i = 0; i < length; i++, offset++)
+        {
+            output[outputOffset++] = hexChars[(bytes[offset] >> 4) & 0x0F];
+            output[outputOffset++] = hexChars[bytes[offset] & 0x0F];
+        }
+        return length * 2;
+    }
+
+    /**
+     * @param bytes to convert to lower case hex
+     * @return hex string
+     */
+    public static String encodeHex(final byte[] bytes)
+    {
+        char[] output = new char[bytes.length * 2];
+        encodeHex(bytes, 0, bytes.length, output, 0);
+        return new String(output);
     }
 
     /**
 	 * @param base32 String to convert to bytes
 	 * @return bytes
 	 */
-	private static byte[] decode(final String base32)
+	public static byte[] decode(final String base32)
     {
         int    i, index, lookup, offset, digit;
         byte[] bytes = new byte[base32.length()*5/8];
@@ -130,13 +320,7 @@ public class Base32 {
         }
         System.out.println(" Original: "+args[0]);
         byte[] decoded = Base32.decode(args[0]);
-        System.out.print  ("      Hex: ");
-        for (byte aDecoded : decoded) {
-            int b = aDecoded;
-            if (b < 0) b += 256;
-            System.out.print((Integer.toHexString(b + 256)).substring(1));
-        }
-        System.out.println();
+        System.out.println("      Hex: " + encodeHex(decoded));
         System.out.println("Reencoded: "+Base32.encode(decoded));
     }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package tth;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Hashes aligned blocks of a file to the roots of their subtrees.
+ *
+ * A block that starts on a multiple of its size, which is a power of two of at least one leaf, is the
+ * subtree under one node of a level of the tree. Blocks up to 1 MB are read and hashed at once, bigger
+ * blocks are read in 1 MB pieces whose roots are reduced to the root of the block. Not thread safe,
+ * every thread should have its own.
+ */
+
+class BlockHasher {
+
+    static final int HashSize = SubtreeHasher.HashSize;
+    private static final int ReadLeafs = 1024; // leafs read and hashed at once, must be a power of two.
+
+    private final SubtreeHasher Hasher = new SubtreeHasher(ReadLeafs);
+    private final ByteBuffer Buffer = ByteBuffer.allocate(ReadLeafs * SubtreeHasher.LeafSize);
+    private SubtreeHasher Pieces; // roots of the pieces of a block bigger then the buffer.
+
+    /**
+     * Reads Size bytes of the channel from Position and writes the root of their subtree into the output.
+     */
+    void HashBlock(FileChannel Channel, long Position, long Size, byte[] Output, int OutputOffset) throws IOException {
+        if (Size <= Buffer.capacity()) {
+            Read(Channel, Position, (int) Size);
+            Hasher.ComputeRoot(Buffer, 0, (int) Size, Output, OutputOffset);
+            return;
+        }
+
+        int Count = (int) ((Size + Buffer.capacity() - 1) / Buffer.capacity());
+        if (Pieces == null || Pieces.LeafHashes().length < Count * HashSize)
+            Pieces = new SubtreeHasher(Count);
+
+        for (int i = 0; i < Count; i++) {
+            long PiecePosition = Position + (long) i * Buffer.capacity();
+            int PieceSize = (int) Math.min(Buffer.capacity(), Position + Size - PiecePosition);
+
+            Read(Channel, PiecePosition, PieceSize);
+            Hasher.ComputeRoot(Buffer, 0, PieceSize, Pieces.LeafHashes(), i * HashSize);
+        }
+
+        Pieces.Reduce(Count);
+        System.arraycopy(Pieces.LeafHashes(), 0, Output, OutputOffset, HashSize);
+    }
+
+    private void Read(FileChannel Channel, long Position, int Size) throws IOException {
+        Buffer.clear().limit(Size);
+        while (Buffer.hasRemaining())
+            if (Channel.read(Buffer, Position + Buffer.position()) < 0)
+                throw new EOFException("file is shorter then expected");
+    }
+}
@@ -0,0 +1,401 @@
+package tth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of tiger tree roots
+ *
+ * Remembers the root of every hashed file together with its size, modification time and file key (the
+ * device and inode on unix), so a file that hasn't changed since it was hashed can be answered without
+ * reading it. The top levels of the tree can be stored with the root.
+ *
+ * The cache file is append only, every change is a record added at the end under a file lock, so several
+ * processes can share one cache. Each process keeps all entries in memory, a lookup is a map lookup and a
+ * compare, and Refresh() picks up the records added by other processes. Evict() drops the entries of files
+ * that are gone and Compact() rewrites the file with only the live entries.
+ *
+ * Record: int length, byte type, then for a put: path, size, modification time in nanoseconds, file key,
+ * 24 byte root, int length and bytes of the top levels. A remove only holds the path. Strings are a short
+ * length followed by UTF-8.
+ *
+ * The program takes two arguments,
+ * Cache file.
+ * --evict or --compact (optional), drop the entries of files that are gone, and also rewrite the file.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class HashCache implements Closeable {
+
+    private static final byte[] Magic = {'T', 'T', 'H', 'C', 1};
+    private static final byte PutRecord = 1;
+    private static final byte RemoveRecord = 2;
+    private static final int HashSize = 24;
+
+    private final Path CacheFile;
+    private final Map<String, Entry> Entries = new ConcurrentHashMap<>();
+    private FileChannel Channel;
+    private Object ChannelKey; // file key of the open cache file, changes when another process compacts it.
+    private long Offset; // end of the last complete record that was read.
+
+    /**
+     * One cached file.
+     */
+    public static final class Entry {
+        public final long Size;
+        public final long ModifiedTime;
+        public final String FileKey;
+        public final byte[] Root;
+        public final byte[] TopLevels;
+
+        Entry(long Size, long ModifiedTime, String FileKey, byte[] Root, byte[] TopLevels) {
+            this.Size = Size;
+            this.ModifiedTime = ModifiedTime;
+            this.FileKey = FileKey;
+            this.Root = Root;
+            this.TopLevels = TopLevels;
+        }
+
+        boolean Matches(BasicFileAttributes Attributes) {
+            return Size == Attributes.size()
+                    && ModifiedTime == Attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && Objects.equals(FileKey, KeyOf(Attributes));
+        }
+    }
+
+    private HashCache(Path CacheFile) {
+        this.CacheFile = CacheFile;
+    }
+
+    /**
+     * Opens the cache file, it is created when it doesn't exist yet.
+     */
+    public static HashCache Open(Path CacheFile) throws IOException {
+        HashCache Cache = new HashCache(CacheFile);
+        Cache.Reopen();
+        return Cache;
+    }
+
+    /**
+     * @return the cached root of the file, or null when the file isn't cached or has changed since.
+     */
+    public byte[] Lookup(Path File, BasicFileAttributes Attributes) {
+        Entry Entry = Entries.get(KeyOf(File));
+
+        return (Entry != null && Entry.Matches(Attributes)) ? Entry.Root : null;
+    }
+
+    public byte[] Lookup(Path File) throws IOException {
+        return Lookup(File, Files.readAttributes(File, BasicFileAttributes.class));
+    }
+
+    /**
+     * @return the cache entry of the file, or null when the file isn't cached or has changed since.
+     */
+    public Entry Get(Path File, BasicFileAttributes Attributes) {
+        Entry Entry = Entries.get(KeyOf(File));
+
+        return (Entry != null && Entry.Matches(Attributes)) ? Entry : null;
+    }
+
+    /**
+     * @return true when there is an entry for the path, whether or not the file changed since.
+     */
+    public boolean Contains(Path File) {
+        return Entries.containsKey(KeyOf(File));
+    }
+
+    public void Put(Path File, BasicFileAttributes Attributes, byte[] Root) throws IOException {
+        Put(File, Attributes, Root, new byte[0]);
+    }
+
+    /**
+     * Stores the root, and the top levels of the tree, of the file as it was when Attributes were read.
+     */
+    public synchronized void Put(Path File, BasicFileAttributes Attributes, byte[] Root, byte[] TopLevels)
+            throws IOException {
+        if (Root.length != HashSize) throw new IllegalArgumentException("Root");
+
+        Entry Entry = new Entry(Attributes.size(), Attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                KeyOf(Attributes), Root.clone(), TopLevels.clone());
+
+        Append(PutRecord(KeyOf(File), Entry));
+        Entries.put(KeyOf(File), Entry);
+    }
+
+    public synchronized void Remove(Path File) throws IOException {
+        ByteArrayOutputStream Record = new ByteArrayOutputStream();
+        DataOutputStream Output = new DataOutputStream(Record);
+
+        Output.writeInt(0);
+        Output.writeByte(RemoveRecord);
+        WriteString(Output, KeyOf(File));
+
+        Append(Framed(Record.toByteArray()));
+        Entries.remove(KeyOf(File));
+    }
+
+    /**
+     * Drops the entries of files that no longer exist or have changed since they were hashed.
+     *
+     * @return number of dropped entries
+     */
+    public synchronized int Evict() throws IOException {
+        int Count = 0;
+
+        for (Map.Entry<String, Entry> Cached : Entries.entrySet()) {
+            Path File = Paths.get(Cached.getKey());
+            try {
+                if (Cached.getValue().Matches(Files.readAttributes(File, BasicFileAttributes.class)))
+                    continue;
+            } catch (NoSuchFileException e) {
+                // the file is gone.
+            }
+            Remove(File);
+            Count++;
+        }
+
+        return Count;
+    }
+
+    /**
+     * Rewrites the cache file with only the live entries, other processes reopen it on their next Refresh().
+     */
+    public synchronized void Compact() throws IOException {
+        Path Temp = CacheFile.resolveSibling(CacheFile.getFileName() + ".tmp");
+
+        FileLock Lock = Channel.lock();
+        try {
+            ReadRecords();
+
+            try (FileChannel Output = FileChannel.open(Temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Output.write(ByteBuffer.wrap(Magic));
+
+                for (Map.Entry<String, Entry> Cached : Entries.entrySet())
+                    Output.write(PutRecord(Cached.getKey(), Cached.getValue()));
+                Output.force(true);
+            }
+
+            Files.move(Temp, CacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Lock.release();
+        }
+
+        Reopen();
+    }
+
+    /**
+     * Reads the records other processes added since the last call.
+     */
+    public synchronized void Refresh() throws IOException {
+        if (!Objects.equals(ChannelKey, CurrentKey())) {
+            Reopen();
+            return;
+        }
+        ReadRecords();
+    }
+
+    public int Size() {
+        return Entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (Channel != null) Channel.close();
+    }
+
+    private void Reopen() throws IOException {
+        if (Channel != null) Channel.close();
+
+        Channel = FileChannel.open(CacheFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ChannelKey = CurrentKey();
+        Entries.clear();
+        Offset = 0;
+
+        FileLock Lock = Channel.lock();
+        try {
+            if (Channel.size() == 0)
+                Channel.write(ByteBuffer.wrap(Magic), 0);
+        } finally {
+            Lock.release();
+        }
+
+        ByteBuffer Header = ByteBuffer.allocate(Magic.length);
+        Channel.read(Header, 0);
+        Header.flip();
+        if (!Header.equals(ByteBuffer.wrap(Magic)))
+            throw new IOException("not a hash cache: " + CacheFile);
+
+        Offset = Magic.length;
+        ReadRecords();
+    }
+
+    private Object CurrentKey() throws IOException {
+        try {
+            return Files.readAttributes(CacheFile, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void Append(ByteBuffer Record) throws IOException {
+        while (true) {
+            FileLock Lock = Channel.lock();
+            try {
+                // another process compacted the file while this one waited for the lock.
+                if (Objects.equals(ChannelKey, CurrentKey())) {
+                    // every record is written whole under the lock, so what is left after the complete ones
+                    // is the rest of a write that never finished, a record after it would never be read.
+                    ReadRecords();
+                    if (Channel.size() > Offset) {
+                        System.err.println("cutting " + (Channel.size() - Offset) + " bytes of a broken record off " + CacheFile);
+                        Channel.truncate(Offset);
+                    }
+
+                    long Position = Offset;
+                    while (Record.hasRemaining())
+                        Position += Channel.write(Record, Position);
+                    return;
+                }
+            } finally {
+                Lock.release();
+            }
+            Reopen();
+        }
+    }
+
+    private static ByteBuffer PutRecord(String File, Entry Entry) throws IOException {
+        ByteArrayOutputStream Record = new ByteArrayOutputStream();
+        DataOutputStream Output = new DataOutputStream(Record);
+
+        Output.writeInt(0);
+        Output.writeByte(PutRecord);
+        WriteString(Output, File);
+        Output.writeLong(Entry.Size);
+        Output.writeLong(Entry.ModifiedTime);
+        WriteString(Output, Entry.FileKey == null ? "" : Entry.FileKey);
+        Output.write(Entry.Root);
+        Output.writeInt(Entry.TopLevels.length);
+        Output.write(Entry.TopLevels);
+
+        return Framed(Record.toByteArray());
+    }
+
+    private static ByteBuffer Framed(byte[] Record) {
+        // the length in front of the record doesn't count itself.
+        ByteBuffer Data = ByteBuffer.wrap(Record);
+        Data.putInt(0, Record.length - 4);
+        return Data;
+    }
+
+    private void ReadRecords() throws IOException {
+        long End = Channel.size();
+        if (End <= Offset) return;
+
+        ByteBuffer Data = ByteBuffer.allocate((int) Math.min(End - Offset, Integer.MAX_VALUE - 8));
+        while (Data.hasRemaining() && Channel.read(Data, Offset + Data.position()) > 0);
+        Data.flip();
+
+        // a record that is still being written by another process is read on the next refresh, reading stops
+        // at a broken record and the next Append() cuts it off.
+        while (Data.remaining() >= 4 && Data.getInt(Data.position()) >= 0
+                && Data.remaining() - 4 >= Data.getInt(Data.position())) {
+            int Length = Data.getInt(Data.position());
+            ByteBuffer Record = Data.slice().position(4).limit(4 + Length);
+
+            try {
+                byte Type = Record.get();
+                String File = ReadString(Record);
+
+                if (Type == RemoveRecord && !Record.hasRemaining()) {
+                    Entries.remove(File);
+                }
+                else if (Type == PutRecord) {
+                    long Size = Record.getLong();
+                    long ModifiedTime = Record.getLong();
+                    String FileKey = ReadString(Record);
+                    byte[] Root = new byte[HashSize];
+                    Record.get(Root);
+                    int TopLength = Record.getInt();
+                    if (TopLength != Record.remaining()) return; // the lengths don't fit the record.
+                    byte[] TopLevels = new byte[TopLength];
+                    Record.get(TopLevels);
+
+                    Entries.put(File, new Entry(Size, ModifiedTime, FileKey.isEmpty() ? null : FileKey, Root, TopLevels));
+                }
+                else {
+                    return;
+                }
+            } catch (BufferUnderflowException e) {
+                return;
+            }
+
+            Data.position(Data.position() + 4 + Length);
+            Offset += 4 + Length;
+        }
+    }
+
+    private static void WriteString(DataOutputStream Output, String Value) throws IOException {
+        byte[] Bytes = Value.getBytes(StandardCharsets.UTF_8);
+
+        Output.writeShort(Bytes.length);
+        Output.write(Bytes);
+    }
+
+    private static String ReadString(ByteBuffer Record) {
+        byte[] Bytes = new byte[Record.getShort() & 0xFFFF];
+        Record.get(Bytes);
+        return new String(Bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String KeyOf(Path File) {
+        return File.toAbsolutePath().normalize().toString();
+    }
+
+    private static String KeyOf(BasicFileAttributes Attributes) {
+        return Attributes.fileKey() == null ? null : Attributes.fileKey().toString();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args[0].isEmpty()) {
+            System.out.println("No cache file given");
+            return;
+        }
+
+        try (HashCache cache = HashCache.Open(Paths.get(args[0]))) {
+            System.out.println("Entries: " + cache.Size());
+
+            if (args.length > 1 && (args[1].equals("--evict") || args[1].equals("--compact")))
+                System.out.println("Evicted: " + cache.Evict());
+
+            if (args.length > 1 && args[1].equals("--compact")) {
+                cache.Compact();
+                System.out.println("Compacted to " + Files.size(Paths.get(args[0])) + " bytes");
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong with cache: " + args[0]);
+            e.printStackTrace();
+        }
+    }
+}
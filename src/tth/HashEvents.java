@@ -0,0 +1,151 @@
+package tth;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events of ThexThreaded, recorded with -XX:StartFlightRecording or jcmd JFR.start and
+ * shown under "Tiger Tree Hash" in JDK Mission Control. HashStats begins and commits them once per file
+ * and once per worker, never from inside the hashing loops.
+ */
+
+final class HashEvents {
+
+    private HashEvents() {
+    }
+
+    /**
+     * @return true when a recording wants any of the events, the file is measured then.
+     */
+    static boolean Enabled() {
+        return EventType.getEventType(FileHashed.class).isEnabled()
+                || EventType.getEventType(WorkerDone.class).isEnabled()
+                || EventType.getEventType(TreeReduced.class).isEnabled()
+                || EventType.getEventType(PipelineDone.class).isEnabled();
+    }
+
+    @Name("tth.FileHashed")
+    @Label("File Hashed")
+    @Category("Tiger Tree Hash")
+    @Description("A file hashed by ThexThreaded")
+    @StackTrace(false)
+    static class FileHashed extends Event {
+        @Label("Path")
+        String Path;
+
+        @Label("Mode")
+        String Mode;
+
+        @Label("Size")
+        @DataAmount
+        long Size;
+
+        @Label("Threads")
+        int Threads;
+
+        @Label("Throughput")
+        @DataAmount
+        @Frequency
+        long BytesPerSecond;
+
+        @Label("Leafs per Second")
+        @Frequency
+        long LeafsPerSecond;
+
+        @Label("Read Time")
+        @Description("Time of all workers together spent reading")
+        @Timespan(Timespan.NANOSECONDS)
+        long ReadTime;
+
+        @Label("Hash Time")
+        @Description("Time of all workers together spent hashing leafs")
+        @Timespan(Timespan.NANOSECONDS)
+        long HashTime;
+
+        @Label("Reduce Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long ReduceTime;
+    }
+
+    @Name("tth.Worker")
+    @Label("Hash Worker")
+    @Category("Tiger Tree Hash")
+    @Description("A thread of ThexThreaded that read or hashed part of a file")
+    @StackTrace(false)
+    static class WorkerDone extends Event {
+        @Label("Path")
+        String Path;
+
+        @Label("Worker")
+        int Worker;
+
+        @Label("Role")
+        String Role;
+
+        @Label("Bytes")
+        @DataAmount
+        long Bytes;
+
+        @Label("Read Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long ReadTime;
+
+        @Label("Hash Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long HashTime;
+
+        @Label("Wait Time")
+        @Description("Time spent waiting on the buffer pool or the queue of the pipeline")
+        @Timespan(Timespan.NANOSECONDS)
+        long WaitTime;
+    }
+
+    @Name("tth.TreeReduction")
+    @Label("Tree Reduction")
+    @Category("Tiger Tree Hash")
+    @Description("The leaf hashes of a file reduced to the root")
+    @StackTrace(false)
+    static class TreeReduced extends Event {
+        @Label("Path")
+        String Path;
+
+        @Label("Leafs")
+        long Leafs;
+
+        @Label("Levels")
+        int Levels;
+    }
+
+    @Name("tth.Pipeline")
+    @Label("Pipeline")
+    @Category("Tiger Tree Hash")
+    @Description("Buffer pool and queue of a pipelined file, sampled every time a block is taken")
+    @StackTrace(false)
+    static class PipelineDone extends Event {
+        @Label("Path")
+        String Path;
+
+        @Label("Buffers")
+        int Buffers;
+
+        @Label("Average Free Buffers")
+        double AverageFreeBuffers;
+
+        @Label("Least Free Buffers")
+        int MinFreeBuffers;
+
+        @Label("Average Queue Depth")
+        double AverageQueueDepth;
+
+        @Label("Deepest Queue")
+        int MaxQueueDepth;
+    }
+}
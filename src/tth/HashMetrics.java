@@ -0,0 +1,93 @@
+package tth;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Collects the measurements of every file hashed by a ThexThreaded it is set on: the totals of all files,
+ * and when given an output, a line of JSON per file with its throughput, the read, hash and wait time of
+ * every worker, the time of the tree reduction and the buffer pool and queue of a pipeline.
+ *
+ * A line looks like:
+ * {"time":"...","path":"...","mode":"pipeline","size":1048576,"leafs":1024,"levels":11,"threads":3,
+ * "nanos":..., "bytesPerSecond":...,"leafsPerSecond":...,"readNanos":...,"hashNanos":...,"reduceNanos":...,
+ * "workers":[{"worker":0,"role":"reader","bytes":...,"nanos":...,"readNanos":...,"hashNanos":0,"waitNanos":...},...],
+ * "pipeline":{"buffers":5,"averageFreeBuffers":...,"minFreeBuffers":...,"averageQueueDepth":...,"maxQueueDepth":...}}
+ *
+ * Any number of threads can share one HashMetrics. It is only set on a ThexThreaded through its package
+ * private Metrics, so it is package private as well.
+ */
+
+final class HashMetrics implements Closeable {
+
+    private final Writer Output;
+    private final StringBuilder Line = new StringBuilder(1024);
+    private long HashedFiles;
+    private long HashedBytes;
+    private long HashedNanos;
+
+    /**
+     * Only keeps the totals.
+     */
+    HashMetrics() {
+        this.Output = null;
+    }
+
+    /**
+     * Appends the JSON lines to the file.
+     */
+    HashMetrics(Path File) throws IOException {
+        this(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(File, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.WRITE), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param Output gets a JSON line for every file, closed with the metrics
+     */
+    HashMetrics(Writer Output) {
+        this.Output = Output;
+    }
+
+    synchronized void Add(HashStats Stats) throws IOException {
+        HashedFiles++;
+        HashedBytes += Stats.Size;
+        HashedNanos += Stats.Nanos;
+
+        if (Output == null) return;
+
+        Line.setLength(0);
+        Stats.WriteJson(Line);
+        Line.append('\n');
+
+        // a line per file, a dashboard that follows the file sees it as soon as the file is hashed.
+        Output.append(Line);
+        Output.flush();
+    }
+
+    synchronized long Files() {
+        return HashedFiles;
+    }
+
+    synchronized long Bytes() {
+        return HashedBytes;
+    }
+
+    /**
+     * @return time spent on all files together, from opening to the root
+     */
+    synchronized long Nanos() {
+        return HashedNanos;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (Output != null) Output.close();
+    }
+}
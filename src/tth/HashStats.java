@@ -0,0 +1,284 @@
+package tth;
+
+import java.time.Instant;
+
+/**
+ * Measurements of one file hashed by ThexThreaded, only made while a HashMetrics is set or a flight
+ * recording wants the HashEvents, otherwise there is no HashStats and the workers don't read the clock.
+ *
+ * Every worker thread has a Worker of its own that only it writes to, the numbers are read once all
+ * workers are done, so there is no locking.
+ */
+
+final class HashStats {
+
+    final String Path;
+    final String Mode;
+    long Size;
+    long Leafs;
+    int Levels;
+    Worker[] Workers = new Worker[0];
+    int Buffers; // buffers in the pool of a pipeline, 0 without one.
+    long Nanos;
+    long ReduceNanos;
+
+    private final long Start = System.nanoTime();
+    private long ReduceStart;
+    private final HashEvents.FileHashed FileEvent = new HashEvents.FileHashed();
+    private final HashEvents.TreeReduced TreeEvent = new HashEvents.TreeReduced();
+    private final HashEvents.PipelineDone PipelineEvent = new HashEvents.PipelineDone();
+
+    /**
+     * The numbers of one reading or hashing thread.
+     */
+    static final class Worker {
+        final boolean Reader;
+        long Bytes;
+        long ReadNanos;
+        long HashNanos;
+        long WaitNanos; // waiting on the buffer pool or the queue of the pipeline.
+        long Nanos;
+
+        long FreeSamples; // free buffers in the pool, every time a reader takes one.
+        long FreeSum;
+        int FreeMin = Integer.MAX_VALUE;
+        long QueueSamples; // full buffers in the queue, every time a hasher takes one.
+        long QueueSum;
+        int QueueMax;
+
+        private long Start;
+        private final HashEvents.WorkerDone Event = new HashEvents.WorkerDone();
+
+        Worker(boolean Reader) {
+            this.Reader = Reader;
+        }
+
+        void Begin() {
+            Event.begin();
+            Start = System.nanoTime();
+        }
+
+        void End(String Path, int Index) {
+            Nanos = System.nanoTime() - Start;
+
+            if (Event.shouldCommit()) {
+                Event.Path = Path;
+                Event.Worker = Index;
+                Event.Role = Reader ? "reader" : "hasher";
+                Event.Bytes = Bytes;
+                Event.ReadTime = ReadNanos;
+                Event.HashTime = HashNanos;
+                Event.WaitTime = WaitNanos;
+                Event.commit();
+            }
+        }
+
+        /**
+         * @return the time the read ended, which is the start of what comes next.
+         */
+        long Read(long Start, long Bytes) {
+            long Now = System.nanoTime();
+            ReadNanos += Now - Start;
+            if (Reader) this.Bytes += Bytes;
+            return Now;
+        }
+
+        long Hashed(long Start, long Bytes) {
+            long Now = System.nanoTime();
+            HashNanos += Now - Start;
+            this.Bytes += Bytes;
+            return Now;
+        }
+
+        long Waited(long Start) {
+            long Now = System.nanoTime();
+            WaitNanos += Now - Start;
+            return Now;
+        }
+
+        void SampleFree(int Free) {
+            FreeSamples++;
+            FreeSum += Free;
+            FreeMin = Math.min(FreeMin, Free);
+        }
+
+        void SampleQueue(int Depth) {
+            QueueSamples++;
+            QueueSum += Depth;
+            QueueMax = Math.max(QueueMax, Depth);
+        }
+    }
+
+    HashStats(String Path, String Mode) {
+        this.Path = Path;
+        this.Mode = Mode;
+
+        FileEvent.begin();
+        PipelineEvent.begin();
+    }
+
+    /**
+     * @param Readers the first workers that only read, those of a pipeline
+     */
+    void Workers(int Count, int Readers) {
+        Workers = new Worker[Count];
+        for (int i = 0; i < Count; i++)
+            Workers[i] = new Worker(i < Readers);
+    }
+
+    void ReduceBegin() {
+        TreeEvent.begin();
+        ReduceStart = System.nanoTime();
+    }
+
+    void ReduceEnd() {
+        ReduceNanos = System.nanoTime() - ReduceStart;
+
+        if (TreeEvent.shouldCommit()) {
+            TreeEvent.Path = Path;
+            TreeEvent.Leafs = Leafs;
+            TreeEvent.Levels = Levels;
+            TreeEvent.commit();
+        }
+    }
+
+    void End() {
+        Nanos = System.nanoTime() - Start;
+
+        if (FileEvent.shouldCommit()) {
+            FileEvent.Path = Path;
+            FileEvent.Mode = Mode;
+            FileEvent.Size = Size;
+            FileEvent.Threads = Workers.length;
+            FileEvent.BytesPerSecond = BytesPerSecond();
+            FileEvent.LeafsPerSecond = LeafsPerSecond();
+            FileEvent.ReadTime = ReadNanos();
+            FileEvent.HashTime = HashNanos();
+            FileEvent.ReduceTime = ReduceNanos;
+            FileEvent.commit();
+        }
+
+        if (Buffers > 0 && PipelineEvent.shouldCommit()) {
+            PipelineEvent.Path = Path;
+            PipelineEvent.Buffers = Buffers;
+            PipelineEvent.AverageFreeBuffers = AverageFreeBuffers();
+            PipelineEvent.MinFreeBuffers = MinFreeBuffers();
+            PipelineEvent.AverageQueueDepth = AverageQueueDepth();
+            PipelineEvent.MaxQueueDepth = MaxQueueDepth();
+            PipelineEvent.commit();
+        }
+    }
+
+    long BytesPerSecond() {
+        return (Nanos == 0) ? 0 : (long) (Size * 1e9 / Nanos);
+    }
+
+    long LeafsPerSecond() {
+        return (Nanos == 0) ? 0 : (long) (Leafs * 1e9 / Nanos);
+    }
+
+    long ReadNanos() {
+        long Sum = 0;
+        for (Worker Worker : Workers)
+            Sum += Worker.ReadNanos;
+        return Sum;
+    }
+
+    long HashNanos() {
+        long Sum = 0;
+        for (Worker Worker : Workers)
+            Sum += Worker.HashNanos;
+        return Sum;
+    }
+
+    double AverageFreeBuffers() {
+        long Samples = 0, Sum = 0;
+        for (Worker Worker : Workers) {
+            Samples += Worker.FreeSamples;
+            Sum += Worker.FreeSum;
+        }
+        return (Samples == 0) ? 0 : (double) Sum / Samples;
+    }
+
+    int MinFreeBuffers() {
+        int Min = Buffers;
+        for (Worker Worker : Workers)
+            Min = Math.min(Min, Worker.FreeMin);
+        return Min;
+    }
+
+    double AverageQueueDepth() {
+        long Samples = 0, Sum = 0;
+        for (Worker Worker : Workers) {
+            Samples += Worker.QueueSamples;
+            Sum += Worker.QueueSum;
+        }
+        return (Samples == 0) ? 0 : (double) Sum / Samples;
+    }
+
+    int MaxQueueDepth() {
+        int Max = 0;
+        for (Worker Worker : Workers)
+            Max = Math.max(Max, Worker.QueueMax);
+        return Max;
+    }
+
+    /**
+     * Writes the file as a single line JSON object, without the line end.
+     */
+    void WriteJson(StringBuilder Json) {
+        Json.append("{\"time\":\"").append(Instant.now()).append('"');
+        Json.append(",\"path\":");
+        Quote(Json, Path);
+        Json.append(",\"mode\":\"").append(Mode).append('"');
+        Json.append(",\"size\":").append(Size);
+        Json.append(",\"leafs\":").append(Leafs);
+        Json.append(",\"levels\":").append(Levels);
+        Json.append(",\"threads\":").append(Workers.length);
+        Json.append(",\"nanos\":").append(Nanos);
+        Json.append(",\"bytesPerSecond\":").append(BytesPerSecond());
+        Json.append(",\"leafsPerSecond\":").append(LeafsPerSecond());
+        Json.append(",\"readNanos\":").append(ReadNanos());
+        Json.append(",\"hashNanos\":").append(HashNanos());
+        Json.append(",\"reduceNanos\":").append(ReduceNanos);
+
+        Json.append(",\"workers\":[");
+        for (int i = 0; i < Workers.length; i++) {
+            Worker Worker = Workers[i];
+            if (i > 0) Json.append(',');
+            Json.append("{\"worker\":").append(i);
+            Json.append(",\"role\":\"").append(Worker.Reader ? "reader" : "hasher").append('"');
+            Json.append(",\"bytes\":").append(Worker.Bytes);
+            Json.append(",\"nanos\":").append(Worker.Nanos);
+            Json.append(",\"readNanos\":").append(Worker.ReadNanos);
+            Json.append(",\"hashNanos\":").append(Worker.HashNanos);
+            Json.append(",\"waitNanos\":").append(Worker.WaitNanos).append('}');
+        }
+        Json.append(']');
+
+        if (Buffers > 0) {
+            Json.append(",\"pipeline\":{\"buffers\":").append(Buffers);
+            Json.append(",\"averageFreeBuffers\":").append(AverageFreeBuffers());
+            Json.append(",\"minFreeBuffers\":").append(MinFreeBuffers());
+            Json.append(",\"averageQueueDepth\":").append(AverageQueueDepth());
+            Json.append(",\"maxQueueDepth\":").append(MaxQueueDepth()).append('}');
+        }
+
+        Json.append('}');
+    }
+
+    private static void Quote(StringBuilder Json, String Text) {
+        Json.append('"');
+        for (int i = 0; i < Text.length(); i++) {
+            char C = Text.charAt(i);
+
+            if (C == '"' || C == '\\')
+                Json.append('\\').append(C);
+            else if (C < 0x20)
+                Json.append(String.format("\\u%04x", (int) C));
+            else
+                Json.append(C);
+        }
+        Json.append('"');
+    }
+}
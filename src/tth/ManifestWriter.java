@@ -0,0 +1,199 @@
+package tth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a manifest of hashed files as lines of: base32 root, two spaces, size, two spaces, path.
+ *
+ * Lines are encoded straight into large buffers, the root with Base32's bulk encoder, the size and the path
+ * by hand as UTF-8, so writing a line doesn't create a String or any other object. Full buffers are handed
+ * to a writer thread through a blocking queue and the next free buffer is filled while it writes, so the
+ * hashing threads that write lines don't wait for the disk unless every buffer is full. A buffer is handed
+ * over once per MB, the writer sleeps in between instead of polling.
+ *
+ * Write can be called from any number of threads, close waits for every line to be written.
+ */
+
+public class ManifestWriter implements Closeable {
+
+    private static final int BufferSize = 1024 * 1024;
+    private static final int BufferCount = 4;
+    private static final ByteBuffer EndOfFile = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel Output;
+    private final BlockingQueue<ByteBuffer> Free = new ArrayBlockingQueue<>(BufferCount);
+    private final BlockingQueue<ByteBuffer> Full = new ArrayBlockingQueue<>(BufferCount + 1);
+    private final Thread Writer;
+    private ByteBuffer Current;
+    private boolean Closed;
+    private volatile IOException Error;
+
+    public ManifestWriter(Path File) throws IOException {
+        this(FileChannel.open(File, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE));
+    }
+
+    /**
+     * @param Output closed with the writer
+     */
+    public ManifestWriter(WritableByteChannel Output) {
+        this.Output = Output;
+
+        for (int i = 1; i < BufferCount; i++)
+            Free.add(ByteBuffer.allocate(BufferSize));
+        Current = ByteBuffer.allocate(BufferSize);
+
+        Writer = new Thread(this::WriteBuffers);
+        Writer.setName("thex-manifest-writer");
+        Writer.setDaemon(true);
+        Writer.start();
+    }
+
+    /**
+     * @throws IOException when an earlier buffer couldn't be written
+     */
+    public synchronized void Write(byte[] Root, long Size, CharSequence Path) throws IOException {
+        if (Closed) throw new IOException("manifest is closed");
+        if (Error != null) throw Error;
+
+        // a char of the path is at most 3 bytes, a surrogate pair is 2 chars for 4 bytes.
+        long Longest = Base32.encodedLength(Root.length) + 2 + 20 + 2 + Path.length() * 3L + 1;
+        if (Longest > BufferSize) throw new IllegalArgumentException("path too long: " + Path.length() + " chars");
+        if (Current.remaining() < Longest) Hand();
+
+        byte[] Data = Current.array();
+        int Position = Current.position();
+
+        Position += Base32.encode(Root, 0, Root.length, Data, Position);
+        Data[Position++] = ' ';
+        Data[Position++] = ' ';
+        Position = WriteLong(Size, Data, Position);
+        Data[Position++] = ' ';
+        Data[Position++] = ' ';
+        Position = WriteUTF8(Path, Data, Position);
+        Data[Position++] = '\n';
+
+        Current.position(Position);
+    }
+
+    /**
+     * Hands the lines written so far to the writer thread, they are written in the background.
+     */
+    public synchronized void Flush() throws IOException {
+        if (Error != null) throw Error;
+        if (!Closed && Current.position() > 0) Hand();
+    }
+
+    /**
+     * Writes the remaining lines and closes the output.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (Closed) return;
+        Closed = true;
+
+        try {
+            if (Current.position() > 0) Hand();
+            Full.put(EndOfFile);
+            Writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing manifest");
+        } finally {
+            Output.close();
+        }
+
+        if (Error != null) throw Error;
+    }
+
+    private void Hand() throws InterruptedIOException {
+        Current.flip();
+
+        try {
+            Full.put(Current);
+            Current = Free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a free manifest buffer");
+        }
+    }
+
+    private void WriteBuffers() {
+        ByteBuffer Buffer;
+
+        try {
+            while ((Buffer = Full.take()) != EndOfFile) {
+                try {
+                    // after an error the buffers are still given back, so Write doesn't wait on them forever.
+                    while (Error == null && Buffer.hasRemaining())
+                        Output.write(Buffer);
+                } catch (IOException e) {
+                    Error = e;
+                }
+
+                Buffer.clear();
+                Free.put(Buffer);
+            }
+        } catch (InterruptedException e) {
+            Error = new InterruptedIOException("manifest writer was interrupted");
+        }
+    }
+
+    private static int WriteLong(long Value, byte[] Data, int Position) {
+        if (Value < 0) {
+            Data[Position++] = '-';
+            Value = -Value; // sizes are never Long.MIN_VALUE.
+        }
+
+        int Digits = 1;
+        for (long Rest = Value / 10; Rest > 0; Rest /= 10)
+            Digits++;
+
+        for (int i = Position + Digits - 1; i >= Position; i--) {
+            Data[i] = (byte) ('0' + Value % 10);
+            Value /= 10;
+        }
+
+        return Position + Digits;
+    }
+
+    private static int WriteUTF8(CharSequence Text, byte[] Data, int Position) {
+        for (int i = 0; i < Text.length(); i++) {
+            char C = Text.charAt(i);
+
+            if (C < 0x80) {
+                Data[Position++] = (byte) C;
+            }
+            else if (C < 0x800) {
+                Data[Position++] = (byte) (0xC0 | (C >> 6));
+                Data[Position++] = (byte) (0x80 | (C & 0x3F));
+            }
+            else if (Character.isHighSurrogate(C) && i + 1 < Text.length() && Character.isLowSurrogate(Text.charAt(i + 1))) {
+                int Code = Character.toCodePoint(C, Text.charAt(++i));
+                Data[Position++] = (byte) (0xF0 | (Code >> 18));
+                Data[Position++] = (byte) (0x80 | ((Code >> 12) & 0x3F));
+                Data[Position++] = (byte) (0x80 | ((Code >> 6) & 0x3F));
+                Data[Position++] = (byte) (0x80 | (Code & 0x3F));
+            }
+            else if (Character.isSurrogate(C)) {
+                Data[Position++] = '?'; // an unpaired surrogate, like String.getBytes does.
+            }
+            else {
+                Data[Position++] = (byte) (0xE0 | (C >> 12));
+                Data[Position++] = (byte) (0x80 | ((C >> 6) & 0x3F));
+                Data[Position++] = (byte) (0x80 | (C & 0x3F));
+            }
+        }
+
+        return Position;
+    }
+}
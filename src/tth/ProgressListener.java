@@ -0,0 +1,20 @@
+package tth;
+
+/**
+ * Receives the progress of a hash that is running in the background.
+ *
+ * Called from the hashing threads at most every ProgressInterval, and once more when all data has been
+ * hashed, so it should return quickly.
+ */
+
+public interface ProgressListener {
+
+    long ProgressInterval = 100_000_000L; // nanoseconds between two calls, 100 ms.
+
+    /**
+     * @param BytesHashed bytes of the file hashed so far
+     * @param TotalBytes size of the file
+     * @param BytesPerSecond average throughput since the hash was started
+     */
+    void Progress(long BytesHashed, long TotalBytes, double BytesPerSecond);
+}
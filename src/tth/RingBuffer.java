@@ -0,0 +1,131 @@
+package tth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock free queue for any number of producers and consumers.
+ *
+ * Every slot has a sequence number that says whose turn it is: a producer may fill the slot when the
+ * sequence equals its ticket, a consumer may empty it when the sequence is one past its ticket. Claiming a
+ * ticket is a single compare and set, so threads never wait on a lock, only on a full or empty ring.
+ * The waiting methods spin for a short while before they start to yield and then park.
+ */
+
+final class RingBuffer<T> {
+
+    private final Object[] Items;
+    private final AtomicLongArray Sequences;
+    private final int Mask;
+    private final AtomicLong Head = new AtomicLong(); // ticket of the next item to take.
+    private final AtomicLong Tail = new AtomicLong(); // ticket of the next item to put.
+
+    /**
+     * @param Capacity most items in the ring, rounded up to a power of two
+     */
+    RingBuffer(int Capacity) {
+        int Size = Integer.highestOneBit(Math.max(Capacity, 2) * 2 - 1);
+
+        Items = new Object[Size];
+        Sequences = new AtomicLongArray(Size);
+        Mask = Size - 1;
+
+        for (int i = 0; i < Size; i++)
+            Sequences.set(i, i);
+    }
+
+    /**
+     * @return false when the ring is full
+     */
+    boolean Offer(T Item) {
+        long Ticket = Tail.get();
+
+        while (true) {
+            int Index = (int) (Ticket & Mask);
+            long Difference = Sequences.get(Index) - Ticket;
+
+            if (Difference == 0) {
+                if (Tail.compareAndSet(Ticket, Ticket + 1)) {
+                    Items[Index] = Item;
+                    Sequences.set(Index, Ticket + 1); // publishes the item.
+                    return true;
+                }
+                Ticket = Tail.get();
+            }
+            else if (Difference < 0) {
+                return false;
+            }
+            else {
+                Ticket = Tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest item, or null when the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    T Poll() {
+        long Ticket = Head.get();
+
+        while (true) {
+            int Index = (int) (Ticket & Mask);
+            long Difference = Sequences.get(Index) - (Ticket + 1);
+
+            if (Difference == 0) {
+                if (Head.compareAndSet(Ticket, Ticket + 1)) {
+                    T Item = (T) Items[Index];
+                    Items[Index] = null;
+                    Sequences.set(Index, Ticket + Mask + 1); // hands the slot to the next round of producers.
+                    return Item;
+                }
+                Ticket = Head.get();
+            }
+            else if (Difference < 0) {
+                return null;
+            }
+            else {
+                Ticket = Head.get();
+            }
+        }
+    }
+
+    /**
+     * @return the number of items in the ring, only a sample while other threads use it
+     */
+    int Size() {
+        return (int) Math.max(0, Math.min(Tail.get() - Head.get(), Mask + 1));
+    }
+
+    /**
+     * Waits until there is room for the item.
+     */
+    void Put(T Item) {
+        for (int Tries = 0; !Offer(Item); Tries++)
+            Wait(Tries);
+    }
+
+    /**
+     * Waits until there is an item.
+     */
+    T Take() {
+        T Item;
+
+        for (int Tries = 0; (Item = Poll()) == null; Tries++)
+            Wait(Tries);
+        return Item;
+    }
+
+    /**
+     * Backs off for the given try of a wait on something else than a ring.
+     */
+    static void Wait(int Tries) {
+        if (Tries < 100)
+            Thread.onSpinWait();
+        else if (Tries < 200)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50_000L);
+    }
+}
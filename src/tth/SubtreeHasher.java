@@ -0,0 +1,118 @@
+package tth;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hashes a run of consecutive leafs into the root of their subtree.
+ *
+ * When the run starts on a leaf index that is a multiple of a power of two at least as big as the
+ * run, its root is the node of the full tree that covers those leafs. That makes it possible to
+ * hash aligned parts of a file independently and combine their roots afterwards.
+ *
+ * The leaf hashes are kept next to each other in one array and every level is written over the level
+ * below it, nothing is allocated per leaf. Not thread safe, every thread should have its own.
+ */
+
+class SubtreeHasher {
+
+    static final byte LeafHash = 0x00;
+    static final byte InternalHash = 0x01;
+    static final int LeafSize = 1024; // Do not change this value
+    static final int HashSize = 24;
+
+    private final Tiger TG = new Tiger();
+    private final byte[] Hashes;
+    private final byte[] Pair = new byte[HashSize * 2];
+
+    /**
+     * @param MaxLeafs largest number of leafs that will be hashed at once
+     */
+    SubtreeHasher(int MaxLeafs) {
+        Hashes = new byte[Math.max(MaxLeafs, 1) * HashSize];
+    }
+
+    /**
+     * Hashes Length bytes of Data starting at Index as leafs and writes the root of their subtree into
+     * the output. Zero bytes is a single empty leaf. The position of the buffer is not used or changed.
+     */
+    void ComputeRoot(ByteBuffer Data, int Index, int Length, byte[] Output, int OutputOffset) {
+        int LeafCount = ComputeLeafs(Data, Index, Length);
+
+        Reduce(LeafCount);
+        System.arraycopy(Hashes, 0, Output, OutputOffset, HashSize);
+    }
+
+    /**
+     * Hashes Length bytes of Data starting at Index as leafs and leaves the leaf hashes next to each other
+     * in the array returned by LeafHashes().
+     *
+     * @return number of leafs
+     */
+    int ComputeLeafs(ByteBuffer Data, int Index, int Length) {
+        int LeafCount = (Length == 0) ? 1 : (Length + LeafSize - 1) / LeafSize;
+
+        if (LeafCount * HashSize > Hashes.length)
+            throw new IllegalArgumentException("more then " + Hashes.length / HashSize + " leafs");
+
+        // the last leaf can be shorter.
+        for (int i = 0; i < LeafCount; i++)
+            TG.ComputeHash(LeafHash, Data, Index + i * LeafSize, Math.min(LeafSize, Length - i * LeafSize),
+                    Hashes, i * HashSize);
+
+        return LeafCount;
+    }
+
+    byte[] LeafHashes() {
+        return Hashes;
+    }
+
+    /**
+     * Reduces the first Count hashes of LeafHashes() level by level until the root is left in the first
+     * 24 bytes. Hashes without a pair are moved up a level unchanged.
+     */
+    void Reduce(int Count) {
+        while (Count > 1)
+            Count = ReduceLevel(Count);
+    }
+
+    /**
+     * Reduces the first Count hashes of LeafHashes() to the level above them.
+     *
+     * @return number of hashes of the level above
+     */
+    int ReduceLevel(int Count) {
+        int Pairs = Count / 2;
+
+        for (int i = 0; i < Pairs; i++)
+            TG.ComputeHash(InternalHash, Hashes, i * HashSize * 2, HashSize * 2, Hashes, i * HashSize);
+
+        if (Count % 2 > 0)
+            System.arraycopy(Hashes, (Count - 1) * HashSize, Hashes, Pairs * HashSize, HashSize);
+
+        return Pairs + Count % 2;
+    }
+
+    /**
+     * Writes the hash of the internal node with the given children into the output.
+     */
+    void InternalHash(byte[] Left, int LeftOffset, byte[] Right, int RightOffset, byte[] Output, int OutputOffset) {
+        System.arraycopy(Left, LeftOffset, Pair, 0, HashSize);
+        System.arraycopy(Right, RightOffset, Pair, HashSize, HashSize);
+
+        TG.ComputeHash(InternalHash, Pair, 0, HashSize * 2, Output, OutputOffset);
+    }
+
+    /**
+     * @return number of leafs of a file of the given size, a zero byte file has one empty leaf.
+     */
+    static long LeafCount(long FileSize) {
+        return (FileSize == 0) ? 1 : (FileSize + LeafSize - 1) / LeafSize;
+    }
+
+    /**
+     * The left subtree of a node over Count leafs holds the largest power of two smaller then Count.
+     */
+    static long LeftLeafs(long Count) {
+        return Long.highestOneBit(Count - 1);
+    }
+}
@@ -0,0 +1,240 @@
+package tth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Java Tiger Tree Hash Adaptive
+ *
+ * Hashes the file in aligned subtrees of 1 MB with positional reads, like ThexForkJoin, but the number of
+ * workers that read at the same time is found while the file is hashed. It starts with a few workers and
+ * measures the bytes hashed per second, as long as another worker raises the speed by more then a few
+ * percent one more is added. When a worker doesn't help it is taken away again and the count is kept,
+ * until the speed drops well below the best seen, then one worker less is tried. That way a disk that
+ * slows down with more readers and a page cached file that scales with the processors both end up at
+ * the number of workers that suits them.
+ *
+ * The program  takes two arguments,
+ * File to hash.
+ * Most threads (optional), default twice the number of processors.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexAdaptive {
+
+    private static final int HashSize = SubtreeHasher.HashSize;
+    private static final int ChunkSize = 1024 * 1024; // bytes hashed by a worker at once, an aligned subtree.
+    private static final long Interval = 250_000_000L; // nanoseconds between measurements.
+    private static final double Gain = 1.05; // speed up a worker has to bring to be kept.
+    private static final double Drop = 0.75; // share of the best speed under which a worker is taken away.
+
+    private final int MinWorkers;
+    private final int MaxWorkers;
+    private volatile int Workers; // workers allowed to hash at the same time.
+
+    public ThexAdaptive() {
+        this(Math.min(2, Runtime.getRuntime().availableProcessors()), Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param MinWorkers workers to start with
+     * @param MaxWorkers most workers that are tried
+     */
+    public ThexAdaptive(int MinWorkers, int MaxWorkers) {
+        if (MinWorkers < 1 || MaxWorkers < MinWorkers)
+            throw new IllegalArgumentException("MinWorkers " + MinWorkers + " MaxWorkers " + MaxWorkers);
+
+        this.MinWorkers = MinWorkers;
+        this.MaxWorkers = MaxWorkers;
+    }
+
+    /**
+     * @return the number of workers the last hash ended with.
+     */
+    public int Workers() {
+        return Workers;
+    }
+
+    public byte[] GetTTH(String Filename) throws IOException {
+        try (FileChannel Channel = FileChannel.open(Paths.get(Filename), StandardOpenOption.READ)) {
+            long FileSize = Channel.size();
+            int Chunks = Math.toIntExact(Math.max(1, (FileSize + ChunkSize - 1) / ChunkSize));
+            SubtreeHasher Roots = new SubtreeHasher(Chunks);
+            Job Job = new Job(Channel, FileSize, Chunks, Roots.LeafHashes());
+
+            Workers = MinWorkers;
+            Job.Permits.release(MinWorkers);
+
+            Thread[] Threads = new Thread[Math.min(MaxWorkers, Chunks)];
+            CountDownLatch Done = new CountDownLatch(Threads.length);
+            for (int i = 0; i < Threads.length; i++) {
+                Threads[i] = new Thread(() -> {
+                    try {
+                        Job.Run();
+                    } finally {
+                        Done.countDown();
+                    }
+                });
+                Threads[i].setName("thex-adaptive-" + i);
+                Threads[i].setDaemon(true);
+                Threads[i].start();
+            }
+
+            try {
+                Control(Job, Done, Threads.length);
+            } catch (InterruptedException e) {
+                Job.Stop();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while hashing " + Filename);
+            }
+
+            if (Job.Error != null) throw Job.Error;
+
+            // the chunks are the nodes of the level of 1 MB subtrees, they reduce to the root.
+            Roots.Reduce(Chunks);
+            byte[] Root = new byte[HashSize];
+            System.arraycopy(Roots.LeafHashes(), 0, Root, 0, HashSize);
+            return Root;
+        }
+    }
+
+    /**
+     * Measures the speed every interval and adds or takes away a worker until all workers are done.
+     */
+    private void Control(Job Job, CountDownLatch Done, int Threads) throws InterruptedException {
+        double Best = 0;
+        long LastBytes = 0;
+        long LastTime = System.nanoTime();
+        boolean Probing = true; // the last worker was added to see if it helps.
+
+        while (!Done.await(Interval, TimeUnit.NANOSECONDS)) {
+            long Now = System.nanoTime();
+            long Bytes = Job.BytesHashed.sum();
+            if (Bytes == LastBytes) continue; // nothing finished yet, the interval is measured longer.
+
+            double Speed = (Bytes - LastBytes) * 1e9 / (Now - LastTime);
+            LastBytes = Bytes;
+            LastTime = Now;
+
+            if (Probing && Speed > Best * Gain) {
+                Best = Speed;
+                if (Workers < Threads) {
+                    Workers++;
+                    Job.Permits.release();
+                }
+                else {
+                    Probing = false;
+                }
+            }
+            else if (Probing) {
+                // the last worker didn't help, the speed with one less is the best there is.
+                if (Workers > MinWorkers && Job.Permits.tryAcquire(Interval, TimeUnit.NANOSECONDS))
+                    Workers--;
+                Probing = false;
+            }
+            else if (Speed < Best * Drop && Workers > 1 && Job.Permits.tryAcquire(Interval, TimeUnit.NANOSECONDS)) {
+                // the device got slower, fewer readers might suit it better now.
+                Workers--;
+                Best = 0;
+                Probing = true;
+            }
+        }
+    }
+
+    /**
+     * State shared by all workers of one file.
+     */
+    private static class Job {
+        final FileChannel Channel;
+        final long FileSize;
+        final int Chunks;
+        final byte[] Roots;
+        final Semaphore Permits = new Semaphore(0); // one for every worker that may hash.
+        final AtomicInteger NextChunk = new AtomicInteger();
+        final LongAdder BytesHashed = new LongAdder();
+        volatile IOException Error;
+
+        Job(FileChannel Channel, long FileSize, int Chunks, byte[] Roots) {
+            this.Channel = Channel;
+            this.FileSize = FileSize;
+            this.Chunks = Chunks;
+            this.Roots = Roots;
+        }
+
+        void Run() {
+            BlockHasher Hasher = new BlockHasher();
+
+            while (true) {
+                Permits.acquireUninterruptibly();
+                try {
+                    int Chunk = NextChunk.getAndIncrement();
+                    if (Chunk >= Chunks) return;
+
+                    long Position = (long) Chunk * ChunkSize;
+                    long Size = Math.min(ChunkSize, FileSize - Position);
+
+                    Hasher.HashBlock(Channel, Position, Size, Roots, Chunk * HashSize);
+                    BytesHashed.add(Size);
+                } catch (IOException e) {
+                    if (Error == null) Error = e;
+                    Stop();
+                    return;
+                } finally {
+                    Permits.release();
+                }
+            }
+        }
+
+        void Stop() {
+            NextChunk.set(Chunks);
+        }
+    }
+
+    public static void main(String[] args) {
+        ThexAdaptive thex = new ThexAdaptive();
+        byte[] result;
+        Instant start;
+        Instant end;
+        if (!(args.length < 1) && !args[0].isEmpty()) {
+            if (args.length > 1 && args[1].matches("[0-9]+") && Integer.parseInt(args[1]) > 0) {
+                int threads = Integer.parseInt(args[1]);
+                thex = new ThexAdaptive(Math.min(2, threads), threads);
+            }
+            File file = new File(args[0]);
+            if (file.exists()) {
+                try {
+                    System.out.println("Start hashing file: " + file.getName());
+
+                    start = Instant.now();
+                    result = thex.GetTTH(args[0]);
+                    end = Instant.now();
+
+                    System.out.println("Finished hashing file: " + file.getName() + " with " + thex.Workers() + " threads");
+                    System.out.println("TTH: " + Base32.encode(result));
+                    System.out.println("TimeTaken: " + Duration.between(start, end));
+
+                } catch (IOException e) {
+                    System.err.println("Something went wrong trying to hash file: " + file.getName());
+                    e.printStackTrace();
+                }
+            } else {
+                System.out.println("The given file does not exist");
+            }
+        }
+        else {
+            System.out.println("No file given");
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package tth;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Java Tiger Tree Hash Batch
+ *
+ * Hashes any number of files in one run on one shared pool. Large files are split into subtrees that
+ * all workers share (see ThexForkJoin), small files are put together in batches that are each hashed by
+ * a single worker, so a share of millions of small files doesn't pay for a task or a split per file.
+ * The number of batches and large files waiting for the pool is bounded, so the walk never gets far
+ * ahead of the hashing.
+ *
+ * With a HashCache the files that haven't changed since the last run are answered from the cache during
+ * the walk without being opened, and every file that is hashed is added to it.
+ *
+ * Results are written in the order they complete as: path TAB size TAB base32 root, or with --manifest as
+ * a manifest of: base32 root, two spaces, size, two spaces, path (see ManifestWriter).
+ *
+ * The program takes these arguments,
+ * Files or directories to hash, directories are walked recursively. Paths are read from standard input,
+ * one per line, when none are given or the path is -.
+ * --sorted (optional), write the results sorted by path once all files are hashed.
+ * --threads N (optional), number of hashing threads, default the number of processors.
+ * --cache FILE (optional), hash cache to answer unchanged files from and to add new results to.
+ * --manifest (optional), write the results as a manifest.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexBatch {
+
+    private static final int LargeFileSize = 16 * 1024 * 1024; // files from this size on are split up.
+    private static final int BatchSize = 16 * 1024 * 1024; // bytes of small files hashed by one worker.
+    private static final int BatchFiles = 256; // files hashed by one worker.
+
+    /**
+     * Receives the result of every file, called from the hashing threads.
+     */
+    public interface ResultListener {
+        void Hashed(Path File, long Size, byte[] Root);
+
+        void Failed(Path File, Exception Error);
+    }
+
+    private final ForkJoinPool Pool;
+    private final ThexForkJoin Thex;
+    private final ResultListener Listener;
+    private final int MaxPending;
+    private final Semaphore Pending;
+    private HashCache Cache;
+
+    private List<Path> Batch = new ArrayList<>();
+    private List<BasicFileAttributes> BatchAttributes = new ArrayList<>();
+    private long BatchBytes;
+
+    // every worker thread reuses its own buffer and hasher for the small files.
+    private static final ThreadLocal<SubtreeHasher> Hashers =
+            ThreadLocal.withInitial(() -> new SubtreeHasher(LargeFileSize / SubtreeHasher.LeafSize));
+    private static final ThreadLocal<ByteBuffer> Buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(LargeFileSize));
+
+    public ThexBatch(ForkJoinPool Pool, ResultListener Listener) {
+        this.Pool = Pool;
+        this.Thex = new ThexForkJoin(Pool);
+        this.Listener = Listener;
+        this.MaxPending = Pool.getParallelism() * 4;
+        this.Pending = new Semaphore(MaxPending);
+    }
+
+    /**
+     * Answers unchanged files from the cache and stores the root of every file that is hashed in it.
+     */
+    public void SetCache(HashCache Cache) {
+        this.Cache = Cache;
+    }
+
+    /**
+     * Schedules a file or all files below a directory. Blocks while too much work is waiting for the pool.
+     */
+    public void Add(Path File) throws InterruptedException {
+        try {
+            Files.walkFileTree(File, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path Child, BasicFileAttributes Attributes) {
+                    if (Attributes.isRegularFile()) {
+                        try {
+                            Add(Child, Attributes);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path Child, IOException Error) {
+                    Listener.Failed(Child, Error);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Listener.Failed(File, e);
+        }
+
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    /**
+     * Schedules a file of which the attributes are already known.
+     */
+    public void Add(Path File, BasicFileAttributes Attributes) throws InterruptedException {
+        if (Cache != null) {
+            byte[] Root = Cache.Lookup(File, Attributes);
+            if (Root != null) {
+                Listener.Hashed(File, Attributes.size(), Root);
+                return;
+            }
+        }
+
+        if (Attributes.size() >= LargeFileSize)
+            AddLarge(File, Attributes);
+        else
+            AddSmall(File, Attributes);
+    }
+
+    /**
+     * Hashes the last batch of small files and waits until every file is hashed.
+     */
+    public void Finish() throws InterruptedException {
+        SubmitBatch();
+
+        Pending.acquire(MaxPending);
+        Pending.release(MaxPending);
+    }
+
+    private void AddLarge(Path File, BasicFileAttributes Attributes) throws InterruptedException {
+        Pending.acquire();
+
+        Thex.GetTTHAsync(File.toString(), null).whenComplete((Root, Error) -> {
+            if (Error != null)
+                Listener.Failed(File, Error instanceof Exception ? (Exception) Error : new Exception(Error));
+            else
+                Hashed(File, Attributes, Attributes.size(), Root);
+
+            Pending.release();
+        });
+    }
+
+    private void AddSmall(Path File, BasicFileAttributes Attributes) throws InterruptedException {
+        Batch.add(File);
+        BatchAttributes.add(Attributes);
+        BatchBytes += Attributes.size();
+
+        if (BatchBytes >= BatchSize || Batch.size() >= BatchFiles)
+            SubmitBatch();
+    }
+
+    private void SubmitBatch() throws InterruptedException {
+        if (Batch.isEmpty()) return;
+
+        List<Path> Files = Batch;
+        List<BasicFileAttributes> Attributes = BatchAttributes;
+        Batch = new ArrayList<>();
+        BatchAttributes = new ArrayList<>();
+        BatchBytes = 0;
+
+        Pending.acquire();
+        Pool.execute(() -> {
+            try {
+                for (int i = 0; i < Files.size(); i++)
+                    HashSmall(Files.get(i), Attributes.get(i));
+            } finally {
+                Pending.release();
+            }
+        });
+    }
+
+    private void HashSmall(Path File, BasicFileAttributes Attributes) {
+        SubtreeHasher Hasher = Hashers.get();
+        ByteBuffer Buffer = Buffers.get();
+        byte[] Root = new byte[SubtreeHasher.HashSize];
+
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            long Size = Channel.size();
+
+            // the file grew since it was listed, it is hashed as a large file.
+            if (Size > Buffer.capacity()) {
+                Hashed(File, Attributes, Size, Thex.GetTTH(File.toString()));
+                return;
+            }
+
+            Buffer.clear().limit((int) Size);
+            while (Buffer.hasRemaining())
+                if (Channel.read(Buffer) < 0)
+                    break;
+
+            Hasher.ComputeRoot(Buffer, 0, Buffer.position(), Root, 0);
+            Hashed(File, Attributes, Buffer.position(), Root);
+        } catch (IOException e) {
+            Listener.Failed(File, e);
+        }
+    }
+
+    private void Hashed(Path File, BasicFileAttributes Attributes, long Size, byte[] Root) {
+        // a file that changed while it was hashed isn't cached, the next run hashes it again.
+        if (Cache != null && Size == Attributes.size()) {
+            try {
+                Cache.Put(File, Attributes, Root);
+            } catch (IOException e) {
+                Listener.Failed(File, e);
+            }
+        }
+
+        Listener.Hashed(File, Size, Root);
+    }
+
+    /**
+     * A file hashed for a sorted manifest.
+     */
+    private static class Result {
+        final String Path;
+        final long Size;
+        final byte[] Root;
+
+        Result(String Path, long Size, byte[] Root) {
+            this.Path = Path;
+            this.Size = Size;
+            this.Root = Root;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean sorted = false;
+        boolean manifest = false;
+        String cacheFile = null;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sorted"))
+                sorted = true;
+            else if (args[i].equals("--threads") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--manifest"))
+                manifest = true;
+            else if (args[i].equals("--cache") && i + 1 < args.length)
+                cacheFile = args[++i];
+            else if (!args[i].isEmpty())
+                paths.add(args[i]);
+        }
+        if (paths.isEmpty()) paths.add("-");
+
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        ManifestWriter manifestOutput = manifest ? new ManifestWriter(Channels.newChannel(System.out)) : null;
+        List<String> lines = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        boolean keepLines = sorted;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        ThexBatch batch = new ThexBatch(pool, new ResultListener() {
+            @Override
+            public void Hashed(Path File, long Size, byte[] Root) {
+                if (manifestOutput != null) {
+                    try {
+                        if (!keepLines)
+                            manifestOutput.Write(Root, Size, File.toString());
+                        else synchronized (results) {
+                            results.add(new Result(File.toString(), Size, Root));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return;
+                }
+
+                String line = File + "\t" + Size + "\t" + Base32.encode(Root);
+                synchronized (lines) {
+                    if (keepLines) {
+                        lines.add(line);
+                        return;
+                    }
+                    try {
+                        output.write(line);
+                        output.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+
+            @Override
+            public void Failed(Path File, Exception Error) {
+                System.err.println("error while trying to get TTH for file: " + File + ". (" + Error.getMessage() + ")");
+            }
+        });
+
+        HashCache cache = (cacheFile == null) ? null : HashCache.Open(Paths.get(cacheFile));
+        batch.SetCache(cache);
+
+        Instant start = Instant.now();
+
+        for (String path : paths) {
+            if (path.equals("-")) {
+                BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = input.readLine()) != null)
+                    if (!line.isEmpty())
+                        batch.Add(Paths.get(line));
+            }
+            else {
+                batch.Add(Paths.get(path));
+            }
+        }
+
+        batch.Finish();
+        pool.shutdown();
+        if (cache != null) cache.close();
+
+        synchronized (lines) {
+            lines.sort(null);
+            for (String line : lines) {
+                output.write(line);
+                output.write('\n');
+            }
+            output.flush();
+        }
+
+        if (manifestOutput != null) {
+            results.sort((a, b) -> a.Path.compareTo(b.Path));
+            for (Result result : results)
+                manifestOutput.Write(result.Root, result.Size, result.Path);
+            manifestOutput.close();
+        }
+
+        System.err.println("TimeTaken: " + Duration.between(start, Instant.now()));
+    }
+}
@@ -0,0 +1,111 @@
+package tth;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Java Tiger Tree Hash Check
+ *
+ * Compares the roots of the engines with the roots of ThexForkJoin for files of sizes on and around the
+ * boundaries where the engines change how they work: a leaf, the 64 KiB and 128 KiB blocks of
+ * ThexOptimized, the 1 MB blocks of ThexThreaded and a few blocks after those. A file is filled with
+ * random bytes, so a leaf hashed in the wrong place never gives the same root.
+ *
+ * Every mismatch is written as: size TAB engine TAB root TAB expected root, the program exits with 1 when
+ * there was one.
+ *
+ * The program takes these arguments,
+ * Seed of the random bytes (optional), default 1.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexCheck {
+
+    private static final int LeafSize = SubtreeHasher.LeafSize;
+    private static final int[] Boundaries = {LeafSize, 64 * LeafSize, 128 * LeafSize, 1024 * LeafSize};
+
+    /**
+     * @return the sizes on, one byte and one leaf around every boundary and around a few multiples of it
+     */
+    static TreeSet<Long> Sizes() {
+        TreeSet<Long> Sizes = new TreeSet<>(Arrays.asList(0L, 1L, 2L));
+
+        for (int Boundary : Boundaries) {
+            for (long Multiple : new long[] {1, 2, 3, 7, 8}) {
+                long Size = Boundary * Multiple;
+
+                for (long Delta : new long[] {-LeafSize - 1, -LeafSize, -LeafSize + 1, -1, 0, 1, LeafSize - 1, LeafSize, LeafSize + 1})
+                    if (Size + Delta >= 0) Sizes.add(Size + Delta);
+            }
+        }
+
+        return Sizes;
+    }
+
+    /**
+     * @return the number of mismatches, every one is written to standard output
+     */
+    static int Check(Path Directory, long Seed) throws IOException {
+        ThexForkJoin Expected = new ThexForkJoin();
+        Random Random = new Random(Seed);
+        int Mismatches = 0;
+
+        for (long Size : Sizes()) {
+            byte[] Data = new byte[Math.toIntExact(Size)];
+            Random.nextBytes(Data);
+
+            Path File = Directory.resolve("check-" + Size);
+            Files.write(File, Data);
+
+            try {
+                byte[] Root = Expected.GetTTH(File.toString());
+                TigerTree Tree = new TigerTree();
+                Tree.update(Data);
+
+                Mismatches += Compare(Size, "ThexOptimized", new ThexOptimized().GetTTH(File.toString()), Root);
+                Mismatches += Compare(Size, "ThexThreaded", new ThexThreaded().GetTTH_Value(File.toString()), Root);
+                Mismatches += Compare(Size, "TigerTree", Tree.digest(), Root);
+            } finally {
+                Files.delete(File);
+            }
+        }
+
+        return Mismatches;
+    }
+
+    private static int Compare(long Size, String Engine, byte[] Root, byte[] Expected) {
+        if (Arrays.equals(Root, Expected)) return 0;
+
+        System.out.println(Size + "\t" + Engine + "\t" + (Root == null ? "-" : Base32.encode(Root)) + "\t" + Base32.encode(Expected));
+        return 1;
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0 && args[0].matches("[0-9]+")) ? Long.parseLong(args[0]) : 1;
+        Path directory = null;
+        int mismatches;
+
+        try {
+            directory = Files.createTempDirectory("thex-check");
+            mismatches = Check(directory, seed);
+        } catch (IOException e) {
+            System.err.println("Something went wrong trying to check the engines");
+            e.printStackTrace();
+            mismatches = 1;
+        } finally {
+            try {
+                if (directory != null) Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                System.err.println("Something went wrong trying to remove: " + directory);
+            }
+        }
+
+        System.out.println("Checked " + Sizes().size() + " sizes, " + mismatches + " mismatches");
+        if (mismatches > 0) System.exit(1);
+    }
+}
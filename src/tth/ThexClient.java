@@ -0,0 +1,133 @@
+package tth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Java Tiger Tree Hash Client
+ *
+ * Asks a running ThexDaemon for the roots of files, over one connection for all of them.
+ * Results are written as: path TAB base32 root.
+ *
+ * The program takes these arguments,
+ * Unix domain socket path, or a port number on the loopback address, of the daemon.
+ * Files to hash, their absolute paths are sent to the daemon which reads them itself. A path of - sends
+ * the bytes of standard input instead.
+ * --send (optional), send the bytes of the files instead of the paths, for files the daemon can't read.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexClient implements AutoCloseable {
+
+    private static final int ChunkSize = 64 * 1024;
+
+    private final SocketChannel Channel;
+    private final InputStream Input;
+    private final DataOutputStream Output;
+
+    public ThexClient(SocketAddress Address) throws IOException {
+        Channel = (Address instanceof UnixDomainSocketAddress)
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        Channel.connect(Address);
+
+        Input = new BufferedInputStream(Channels.newInputStream(Channel));
+        Output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(Channel), ChunkSize + 4));
+    }
+
+    /**
+     * @param Filename path of the file as the daemon sees it
+     */
+    public byte[] Hash(String Filename) throws IOException {
+        Output.write(("HASH " + Filename + "\n").getBytes(StandardCharsets.UTF_8));
+        return Answer();
+    }
+
+    /**
+     * Sends the bytes of the stream up to its end to be hashed.
+     */
+    public byte[] Hash(InputStream Data) throws IOException {
+        byte[] Chunk = new byte[ChunkSize];
+        int Read;
+
+        Output.write("DATA\n".getBytes(StandardCharsets.UTF_8));
+        while ((Read = Data.read(Chunk)) > 0) {
+            Output.writeInt(Read);
+            Output.write(Chunk, 0, Read);
+        }
+        Output.writeInt(0);
+
+        return Answer();
+    }
+
+    private byte[] Answer() throws IOException {
+        Output.flush();
+
+        String Line = ThexDaemon.ReadLine(Input);
+        if (Line == null) throw new IOException("the daemon closed the connection");
+        if (!Line.startsWith("OK ")) throw new IOException(Line.startsWith("ERR ") ? Line.substring(4) : Line);
+
+        return Base32.decode(Line.substring(3));
+    }
+
+    @Override
+    public void close() throws IOException {
+        Channel.close();
+    }
+
+    public static void main(String[] args) {
+        boolean send = false;
+        int failed = 0;
+
+        if (args.length < 2 || args[0].isEmpty()) {
+            System.out.println("No socket path or port and files given");
+            return;
+        }
+
+        for (int i = 1; i < args.length; i++)
+            if (args[i].equals("--send")) send = true;
+
+        try (ThexClient client = new ThexClient(ThexDaemon.Address(args[0]))) {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--send") || args[i].isEmpty()) continue;
+
+                try {
+                    byte[] result;
+                    if (args[i].equals("-")) {
+                        result = client.Hash(System.in);
+                    }
+                    else if (send) {
+                        try (InputStream input = new FileInputStream(args[i])) {
+                            result = client.Hash(input);
+                        }
+                    }
+                    else {
+                        result = client.Hash(Paths.get(args[i]).toAbsolutePath().toString());
+                    }
+
+                    System.out.println(args[i] + "\t" + Base32.encode(result));
+                } catch (IOException e) {
+                    // a file the daemon couldn't hash doesn't end the connection.
+                    System.err.println("error while trying to get TTH for file: " + args[i] + ". (" + e.getMessage() + ")");
+                    failed++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong trying to connect to: " + args[0]);
+            e.printStackTrace();
+        }
+
+        if (failed > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,354 @@
+package tth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Tiger Tree Hash Daemon
+ *
+ * Keeps a JVM with warm Tiger code running and hashes for clients on the same machine, so a hash doesn't pay
+ * for starting a JVM, building the tables and compiling the hash functions again. The daemon listens on
+ * a Unix domain socket or on a port of the loopback address. Every connection is served by its own thread
+ * and can send any number of requests one after the other, connections past the limit wait to be accepted.
+ * That thread only reads and writes the socket, the files and the data are hashed on a shared pool of
+ * threads and every request is hashed by a single thread, so the clients together never hash on more then
+ * the threads of the pool. Every request gets its own engine (see ThexPlanner) and hasher, nothing of one
+ * request is seen by another.
+ *
+ * Requests are a line of ASCII text, answered by a single line:
+ *
+ * HASH path, hashes the file at the path, which has to be readable by the daemon.
+ * DATA, hashes the bytes that follow the line, sent as chunks of a 4 byte big endian length and as many
+ * bytes, a chunk of length 0 ends the data. A chunk of more then 1 MB closes the connection.
+ *
+ * The answer is "OK base32root" or "ERR message".
+ *
+ * The program takes these arguments,
+ * Unix domain socket path, or a port number to listen on the loopback address.
+ * --threads N (optional), files hashed at the same time, default the number of processors.
+ * --connections N (optional), clients served at the same time, default 64.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexDaemon {
+
+    private static final int MaxLine = 64 * 1024; // longest request line, paths are never longer.
+    private static final int MaxChunk = 1024 * 1024; // longest chunk of data a client may send.
+    private static final int DefaultConnections = 64;
+
+    private final SocketAddress Address;
+    private final ExecutorService Pool;
+    private final ThexPlanner Planner;
+    private final Semaphore Connections; // a permit for every client that can be served next to the others.
+    private ServerSocketChannel Server;
+    private boolean Bound; // the socket file is ours to remove.
+
+    public ThexDaemon(SocketAddress Address, int Threads) {
+        this(Address, Threads, DefaultConnections);
+    }
+
+    /**
+     * @param Threads files hashed at the same time, more requests wait for a free thread
+     * @param Connections clients served at the same time, more clients wait to be accepted
+     */
+    public ThexDaemon(SocketAddress Address, int Threads, int Connections) {
+        this.Address = Address;
+        this.Connections = new Semaphore(Connections);
+        this.Pool = Executors.newFixedThreadPool(Threads, Runnable -> {
+            Thread Thread = new Thread(Runnable);
+            Thread.setName("thex-daemon-hash");
+            Thread.setDaemon(true);
+            return Thread;
+        });
+        this.Planner = new ThexPlanner(1); // the requests run next to each other on the pool, not each on all processors.
+    }
+
+    /**
+     * A Unix domain socket for a path, the loopback address for a port number.
+     */
+    static SocketAddress Address(String Name) {
+        if (Name.matches("[0-9]+"))
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(Name));
+        return UnixDomainSocketAddress.of(Name);
+    }
+
+    /**
+     * Accepts connections until the daemon is closed.
+     */
+    public void Run() throws IOException {
+        if (Address instanceof UnixDomainSocketAddress) {
+            RemoveStale(((UnixDomainSocketAddress) Address).getPath());
+            Server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else {
+            Server = ServerSocketChannel.open();
+        }
+
+        try {
+            Server.bind(Address);
+            synchronized (this) {
+                Bound = Address instanceof UnixDomainSocketAddress;
+            }
+            WarmUp();
+
+            while (Server.isOpen()) {
+                // a client past the limit is left in the backlog of the socket until another one is done.
+                if (!Connections.tryAcquire(100, TimeUnit.MILLISECONDS)) continue;
+
+                SocketChannel Client;
+                try {
+                    Client = Server.accept();
+                } catch (IOException e) {
+                    Connections.release();
+                    throw e;
+                }
+
+                Thread Connection = new Thread(() -> {
+                    try {
+                        Serve(Client);
+                    } finally {
+                        Connections.release();
+                    }
+                });
+                Connection.setName("thex-daemon-connection");
+                Connection.setDaemon(true);
+                Connection.start();
+            }
+        } catch (IOException e) {
+            if (Server.isOpen()) throw e; // closing the daemon ends the accept with an exception.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Close();
+        }
+    }
+
+    public synchronized void Close() throws IOException {
+        if (Server != null) Server.close();
+        Pool.shutdown();
+
+        // only the socket this daemon bound, the path may belong to another daemon by now.
+        if (Bound) {
+            Bound = false;
+            Files.deleteIfExists(((UnixDomainSocketAddress) Address).getPath());
+        }
+    }
+
+    /**
+     * Removes a socket file left behind by a daemon that didn't stop cleanly, it would fail the bind. Anything
+     * else at the path, or a socket a daemon still accepts connections on, is left alone.
+     */
+    private static void RemoveStale(Path Path) throws IOException {
+        BasicFileAttributes Attributes;
+
+        try {
+            Attributes = Files.readAttributes(Path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (!IsSocket(Path, Attributes)) throw new IOException(Path + " exists and is not a socket");
+
+        try (SocketChannel Probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Probe.connect(UnixDomainSocketAddress.of(Path));
+        } catch (IOException e) {
+            // refused, nothing listens on it any more.
+            Files.deleteIfExists(Path);
+            return;
+        }
+
+        throw new IOException(Path + " is in use by a running daemon");
+    }
+
+    private static boolean IsSocket(Path Path, BasicFileAttributes Attributes) throws IOException {
+        try {
+            int Mode = (Integer) Files.getAttribute(Path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (Mode & 0170000) == 0140000; // S_IFSOCK
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return Attributes.isOther(); // no unix attributes, the closest there is.
+        }
+    }
+
+    /**
+     * Hashes a few MB so the first requests don't run on the interpreter.
+     */
+    private static void WarmUp() {
+        TigerTree Tree = new TigerTree();
+        byte[] Data = new byte[1024 * 1024];
+
+        for (int i = 0; i < 16; i++)
+            Tree.update(Data);
+        Tree.digest();
+    }
+
+    private void Serve(SocketChannel Client) {
+        try (Client) {
+            DataInputStream Input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(Client), 1 << 16));
+            OutputStream Output = new BufferedOutputStream(Channels.newOutputStream(Client));
+            String Request;
+
+            while ((Request = ReadLine(Input)) != null) {
+                String Answer;
+
+                try {
+                    if (Request.startsWith("HASH ")) {
+                        String Filename = Request.substring(5);
+                        Future<byte[]> Hash = Pool.submit(() -> Planner.GetTTH(Filename));
+                        try {
+                            Answer = "OK " + Base32.encode(Hash.get());
+                        } catch (InterruptedException e) {
+                            Hash.cancel(true);
+                            throw e;
+                        }
+                    }
+                    else if (Request.equals("DATA")) {
+                        Answer = "OK " + Base32.encode(HashData(Input, Pool));
+                    }
+                    else {
+                        Answer = "ERR unknown request: " + Request;
+                    }
+                } catch (ExecutionException e) {
+                    Throwable Cause = e.getCause();
+                    Answer = "ERR " + (Cause.getMessage() != null ? Cause.getMessage() : Cause.toString());
+                }
+
+                Output.write((Answer.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8));
+                Output.flush();
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to answer.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hashes the chunks of a DATA request on the pool in blocks of MaxChunk, while a block is hashed the next
+     * one is read.
+     */
+    private static byte[] HashData(DataInputStream Input, ExecutorService Pool) throws IOException, InterruptedException {
+        TigerTree Tree = new TigerTree();
+        byte[] Reading = new byte[MaxChunk];
+        byte[] Hashing = new byte[MaxChunk];
+        Future<?> Pending = null; // hashes the block in Hashing.
+        int Filled = 0;
+        boolean End = false;
+
+        try {
+            while (!End) {
+                int Length = Input.readInt();
+                if (Length < 0 || Length > MaxChunk) throw new IOException("chunk of " + Length + " bytes");
+                End = Length == 0;
+
+                do {
+                    int Read = Math.min(Length, Reading.length - Filled);
+                    Input.readFully(Reading, Filled, Read);
+                    Filled += Read;
+                    Length -= Read;
+
+                    if (Filled == Reading.length || (End && Filled > 0)) {
+                        if (Pending != null) Pending.get(); // the tree takes the blocks in order.
+
+                        byte[] Block = Reading;
+                        int Size = Filled;
+                        Reading = Hashing;
+                        Hashing = Block;
+                        Filled = 0;
+                        Pending = Pool.submit(() -> Tree.update(Block, 0, Size));
+                    }
+                } while (Length > 0);
+            }
+
+            if (Pending != null) Pending.get();
+        } catch (ExecutionException e) {
+            throw new IOException("hashing the data failed", e.getCause());
+        } finally {
+            if (Pending != null) Pending.cancel(false);
+        }
+
+        return Tree.digest();
+    }
+
+    /**
+     * @return the next line without the line end, null at the end of the stream
+     */
+    static String ReadLine(InputStream Input) throws IOException {
+        byte[] Line = new byte[256];
+        int Length = 0;
+        int Next;
+
+        while ((Next = Input.read()) != '\n') {
+            if (Next < 0) {
+                if (Length == 0) return null;
+                throw new EOFException("line without an end");
+            }
+            if (Length == MaxLine) throw new IOException("line longer then " + MaxLine + " bytes");
+            if (Length == Line.length) Line = Arrays.copyOf(Line, Line.length * 2);
+
+            Line[Length++] = (byte) Next;
+        }
+
+        return new String(Line, 0, Length, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int connections = DefaultConnections;
+
+        if (args.length < 1 || args[0].isEmpty()) {
+            System.out.println("No socket path or port given");
+            return;
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--connections") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                connections = Math.max(1, Integer.parseInt(args[++i]));
+        }
+
+        ThexDaemon daemon = new ThexDaemon(Address(args[0]), threads, connections);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.Close();
+            } catch (IOException e) {
+                System.err.println("Something went wrong trying to remove socket: " + args[0]);
+            }
+        }));
+
+        try {
+            System.out.println("Listening on: " + args[0]);
+            daemon.Run();
+        } catch (IOException e) {
+            System.err.println("Something went wrong trying to listen on: " + args[0]);
+            e.printStackTrace();
+        }
+    }
+}
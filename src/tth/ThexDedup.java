@@ -0,0 +1,315 @@
+package tth;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Java Tiger Tree Hash Dedup
+ *
+ * Finds files with the same content, without hashing every file. Only files of the same size can be the
+ * same, and of those most already differ in their first megabyte, so the candidates are compared in stages
+ * that each read a single aligned 1 MB subtree: first the one at the start of the file, then the one in
+ * the middle and then the one at the end. After every stage only files that still share a size and every
+ * subtree root so far stay candidates. The files that are left are hashed in full, the subtree roots of
+ * the stages are reused for that as they are nodes of the same tree, and the files are grouped by root.
+ *
+ * Every stage hashes its candidates in parallel on a fork/join pool.
+ *
+ * Groups of duplicates are written as lines of: path TAB size TAB base32 root, with an empty line after
+ * every group. The share of the bytes that was read is written to standard error at the end.
+ *
+ * The program takes these arguments,
+ * Files or directories to search, directories are walked recursively.
+ * --threads N (optional), number of hashing threads, default the number of processors.
+ * --min-size BYTES (optional), smaller files are left out, default 1 so empty files are left out.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexDedup {
+
+    private static final int HashSize = SubtreeHasher.HashSize;
+    private static final int ChunkSize = 1024 * 1024; // bytes under one sampled subtree.
+    private static final int Samples = 3; // subtrees at the start, middle and end.
+
+    private final ForkJoinPool Pool;
+    private final Map<Long, List<Candidate>> BySize = new HashMap<>();
+    private final Set<Object> Added = new HashSet<>(); // file keys, or paths where there are none, of the files added.
+    private final LongAdder BytesRead = new LongAdder();
+    private long MinSize = 1;
+    private long BytesTotal;
+
+    // every worker thread reuses its own buffer and hasher.
+    private static final ThreadLocal<BlockHasher> Hashers = ThreadLocal.withInitial(BlockHasher::new);
+
+    /**
+     * A file that could still have duplicates, with the roots of the subtrees sampled so far.
+     */
+    public static final class Candidate {
+        public final Path File;
+        public final long Size;
+        private final byte[] Samples = new byte[ThexDedup.Samples * HashSize];
+        private byte[] Root;
+        private boolean Failed; // couldn't be read, it is left out of every group from then on.
+
+        Candidate(Path File, long Size) {
+            this.File = File;
+            this.Size = Size;
+        }
+
+        /**
+         * @return the root, once the file is hashed in full
+         */
+        public byte[] Root() {
+            return Root;
+        }
+
+        int Chunks() {
+            return Math.toIntExact(Math.max(1, (Size + ChunkSize - 1) / ChunkSize));
+        }
+    }
+
+    public ThexDedup(ForkJoinPool Pool) {
+        this.Pool = Pool;
+    }
+
+    public void SetMinSize(long MinSize) {
+        this.MinSize = MinSize;
+    }
+
+    /**
+     * @return bytes read from the files so far
+     */
+    public long BytesRead() {
+        return BytesRead.sum();
+    }
+
+    /**
+     * @return bytes of all files that were added
+     */
+    public long BytesTotal() {
+        return BytesTotal;
+    }
+
+    /**
+     * Adds a file or all files below a directory, nothing is read yet. A file that was added already, under
+     * this path or another one (overlapping directories, hard links), is not added again, it would be found
+     * to be a duplicate of itself.
+     */
+    public void Add(Path File) throws IOException {
+        Files.walkFileTree(File, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path Child, BasicFileAttributes Attributes) {
+                if (Attributes.isRegularFile() && Attributes.size() >= MinSize
+                        && Added.add(Attributes.fileKey() != null ? Attributes.fileKey() : Child.toAbsolutePath().normalize())) {
+                    BySize.computeIfAbsent(Attributes.size(), Size -> new ArrayList<>()).add(new Candidate(Child, Attributes.size()));
+                    BytesTotal += Attributes.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path Child, IOException Error) {
+                System.err.println("error while trying to read: " + Child + ". (" + Error.getMessage() + ")");
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Compares the files added so far.
+     *
+     * @return the groups of files with the same content, every file has its root set
+     */
+    public List<List<Candidate>> Find() throws IOException, InterruptedException {
+        List<List<Candidate>> Groups = new ArrayList<>();
+        for (List<Candidate> Group : BySize.values())
+            if (Group.size() > 1) Groups.add(Group);
+
+        for (int Sample = 0; Sample < Samples && !Groups.isEmpty(); Sample++) {
+            int Stage = Sample;
+            Run(Groups, Candidate -> HashSample(Candidate, Stage));
+            Groups = Split(Groups, Candidate -> ByteBuffer.wrap(Candidate.Samples, Stage * HashSize, HashSize));
+        }
+
+        Run(Groups, this::HashFull);
+        return Split(Groups, Candidate -> ByteBuffer.wrap(Candidate.Root));
+    }
+
+    private interface Step {
+        void Hash(Candidate Candidate) throws IOException;
+    }
+
+    private interface Key {
+        ByteBuffer Of(Candidate Candidate);
+    }
+
+    /**
+     * Hashes every candidate on the pool, a file that can't be read is no candidate anymore.
+     */
+    private void Run(List<List<Candidate>> Groups, Step Step) throws IOException, InterruptedException {
+        try {
+            Pool.submit(() -> Groups.parallelStream().forEach(Group -> Group.parallelStream().forEach(Candidate -> {
+                try {
+                    Step.Hash(Candidate);
+                } catch (IOException e) {
+                    System.err.println("error while trying to get TTH for file: " + Candidate.File + ". (" + e.getMessage() + ")");
+                    Candidate.Failed = true;
+                }
+            }))).get();
+        } catch (ExecutionException e) {
+            throw new IOException("error while trying to get TTH: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Splits every group by the key, groups of a single file are dropped.
+     */
+    private List<List<Candidate>> Split(List<List<Candidate>> Groups, Key Key) {
+        List<List<Candidate>> Result = new ArrayList<>();
+
+        for (List<Candidate> Group : Groups) {
+            Map<ByteBuffer, List<Candidate>> ByKey = new HashMap<>();
+            for (Candidate Candidate : Group)
+                if (!Candidate.Failed)
+                    ByKey.computeIfAbsent(Key.Of(Candidate), K -> new ArrayList<>()).add(Candidate);
+
+            for (List<Candidate> Same : ByKey.values())
+                if (Same.size() > 1) Result.add(Same);
+        }
+
+        return Result;
+    }
+
+    /**
+     * The chunk sampled in a stage, a stage that samples the chunk of an earlier stage takes its root over
+     * without reading it, so a file of a single chunk is read once.
+     */
+    private static int SampleChunk(int Chunks, int Stage) {
+        switch (Stage) {
+            case 0: return 0;
+            case 1: return Chunks / 2;
+            default: return Chunks - 1;
+        }
+    }
+
+    private void HashSample(Candidate Candidate, int Stage) throws IOException {
+        int Chunks = Candidate.Chunks();
+        int Chunk = SampleChunk(Chunks, Stage);
+
+        for (int Earlier = 0; Earlier < Stage; Earlier++) {
+            if (SampleChunk(Chunks, Earlier) == Chunk) {
+                System.arraycopy(Candidate.Samples, Earlier * HashSize, Candidate.Samples, Stage * HashSize, HashSize);
+                return;
+            }
+        }
+
+        try (FileChannel Channel = FileChannel.open(Candidate.File, StandardOpenOption.READ)) {
+            long Position = (long) Chunk * ChunkSize;
+            long Size = Math.min(ChunkSize, Candidate.Size - Position);
+
+            Hashers.get().HashBlock(Channel, Position, Size, Candidate.Samples, Stage * HashSize);
+            BytesRead.add(Size);
+        }
+    }
+
+    /**
+     * Hashes the chunks that weren't sampled and reduces all of them to the root.
+     */
+    private void HashFull(Candidate Candidate) throws IOException {
+        int Chunks = Candidate.Chunks();
+        SubtreeHasher Roots = new SubtreeHasher(Chunks);
+        byte[] Hashes = Roots.LeafHashes();
+
+        try (FileChannel Channel = FileChannel.open(Candidate.File, StandardOpenOption.READ)) {
+            for (int Chunk = 0; Chunk < Chunks; Chunk++) {
+                int Sampled = -1;
+                for (int Stage = 0; Stage < Samples; Stage++)
+                    if (SampleChunk(Chunks, Stage) == Chunk) Sampled = Stage;
+
+                if (Sampled >= 0) {
+                    System.arraycopy(Candidate.Samples, Sampled * HashSize, Hashes, Chunk * HashSize, HashSize);
+                    continue;
+                }
+
+                long Position = (long) Chunk * ChunkSize;
+                long Size = Math.min(ChunkSize, Candidate.Size - Position);
+
+                Hashers.get().HashBlock(Channel, Position, Size, Hashes, Chunk * HashSize);
+                BytesRead.add(Size);
+            }
+        }
+
+        Roots.Reduce(Chunks);
+        Candidate.Root = new byte[HashSize];
+        System.arraycopy(Hashes, 0, Candidate.Root, 0, HashSize);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long minSize = 1;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--min-size") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                minSize = Long.parseLong(args[++i]);
+            else if (!args[i].isEmpty())
+                paths.add(args[i]);
+        }
+
+        if (paths.isEmpty()) {
+            System.out.println("No files or directories given");
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ThexDedup dedup = new ThexDedup(pool);
+        dedup.SetMinSize(minSize);
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+
+        Instant start = Instant.now();
+
+        for (String path : paths)
+            dedup.Add(Paths.get(path));
+
+        List<List<Candidate>> groups = dedup.Find();
+        pool.shutdown();
+
+        for (List<Candidate> group : groups) {
+            group.sort((a, b) -> a.File.compareTo(b.File));
+            for (Candidate file : group)
+                output.write(file.File + "\t" + file.Size + "\t" + Base32.encode(file.Root) + "\n");
+            output.write('\n');
+        }
+        output.flush();
+
+        System.err.println("Read " + dedup.BytesRead() + " of " + dedup.BytesTotal() + " bytes, found " +
+                groups.size() + " groups of duplicates");
+        System.err.println("TimeTaken: " + Duration.between(start, Instant.now()));
+    }
+}
@@ -0,0 +1,262 @@
+package tth;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Java Tiger Tree Hash Fork/Join
+ *
+ * The leafs of the file are split into subtrees that start on a power of two, every task reads its own
+ * subtree of 1 MB with positional reads and hashes it to its root, and the roots are merged up the tree
+ * by the tasks that split them. Idle workers steal the subtrees that haven't been started yet, so a slow
+ * part of the file doesn't hold up the rest, and the reduction of the tree runs in parallel as well.
+ * The leaf level of the tree is never kept in memory.
+ *
+ * GetTTHAsync returns at once with a future that completes as soon as the last subtree is merged. Cancelling
+ * the future closes the file and stops all reading, an error of any worker completes it exceptionally.
+ *
+ * The program  takes two arguments,
+ * File to hash.
+ * Number of threads (optional), default the number of processors.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexForkJoin {
+
+    private static final int LeafSize = SubtreeHasher.LeafSize;
+    private static final int HashSize = SubtreeHasher.HashSize;
+    private static final int SubtreeLeafs = 1024; // leafs hashed by one task, must be a power of two.
+
+    private final ForkJoinPool Pool;
+
+    // every worker thread reuses its own buffer and hasher.
+    private static final ThreadLocal<Worker> Workers = ThreadLocal.withInitial(Worker::new);
+
+    public ThexForkJoin() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ThexForkJoin(ForkJoinPool Pool) {
+        this.Pool = Pool;
+    }
+
+    public byte[] GetTTH(String Filename) throws IOException {
+        CompletableFuture<byte[]> Result = GetTTHAsync(Filename, null);
+
+        try {
+            return Result.get();
+        } catch (InterruptedException e) {
+            Result.cancel(true); // stops the hash and closes the file, nobody waits for it any more.
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while hashing " + Filename);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("error while trying to get TTH: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Starts hashing the file on the pool.
+     *
+     * @param Filename file to hash
+     * @param Listener gets the progress of the hash, can be null
+     * @return future of the root, cancelling it stops the hash and closes the file
+     */
+    public CompletableFuture<byte[]> GetTTHAsync(String Filename, ProgressListener Listener) {
+        CompletableFuture<byte[]> Result = new CompletableFuture<>();
+        Job Job;
+
+        try {
+            Job = new Job(FileChannel.open(Paths.get(Filename), StandardOpenOption.READ), Listener);
+        } catch (IOException e) {
+            Result.completeExceptionally(e);
+            return Result;
+        }
+
+        // runs when the hash finishes in any way, including a cancel from another thread.
+        Result.whenComplete((Root, Error) -> Job.Close());
+
+        Pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    byte[] Root = new SubtreeTask(Job, 0, SubtreeHasher.LeafCount(Job.FileSize)).compute();
+                    Job.Report(true);
+                    Result.complete(Root);
+                } catch (UncheckedIOException e) {
+                    Result.completeExceptionally(e.getCause());
+                } catch (Throwable e) {
+                    Result.completeExceptionally(e);
+                }
+            }
+        });
+
+        return Result;
+    }
+
+    /**
+     * State shared by all tasks of one file.
+     */
+    private static class Job {
+        final FileChannel Channel;
+        final long FileSize;
+        final ProgressListener Listener;
+        final long StartTime = System.nanoTime();
+        final LongAdder BytesHashed = new LongAdder();
+        final AtomicLong LastReport = new AtomicLong(StartTime);
+        volatile boolean Closed;
+
+        Job(FileChannel Channel, ProgressListener Listener) throws IOException {
+            this.Channel = Channel;
+            this.FileSize = Channel.size();
+            this.Listener = Listener;
+        }
+
+        void Hashed(int Bytes) {
+            BytesHashed.add(Bytes);
+            Report(false);
+        }
+
+        void Report(boolean Final) {
+            if (Listener == null) return;
+
+            long Now = System.nanoTime();
+            long Last = LastReport.get();
+
+            // only one thread reports per interval.
+            if (Final || (Now - Last >= ProgressListener.ProgressInterval && LastReport.compareAndSet(Last, Now))) {
+                long Bytes = BytesHashed.sum();
+                Listener.Progress(Bytes, FileSize, Bytes * 1e9 / Math.max(Now - StartTime, 1));
+            }
+        }
+
+        void Close() {
+            Closed = true;
+            try {
+                Channel.close();
+            } catch (IOException ignored) {
+                // nothing can be done about it, the result is already known.
+            }
+        }
+    }
+
+    private static class Worker {
+        final SubtreeHasher Hasher = new SubtreeHasher(SubtreeLeafs);
+        final ByteBuffer Buffer = ByteBuffer.allocate(SubtreeLeafs * LeafSize);
+    }
+
+    @SuppressWarnings("serial")
+    private static class SubtreeTask extends RecursiveTask<byte[]> {
+        private final Job Job;
+        private final long LeafStart;
+        private final long LeafCount;
+
+        SubtreeTask(Job Job, long LeafStart, long LeafCount) {
+            this.Job = Job;
+            this.LeafStart = LeafStart;
+            this.LeafCount = LeafCount;
+        }
+
+        @Override
+        protected byte[] compute() {
+            byte[] Root = new byte[HashSize];
+
+            // the hash was cancelled or failed, the subtrees that haven't started don't read anything.
+            if (Job.Closed) throw new CancellationException();
+
+            if (LeafCount <= SubtreeLeafs) {
+                try {
+                    HashSubtree(Root);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return Root;
+            }
+
+            // the left subtree is always full, the right one holds the rest.
+            long LeftLeafs = SubtreeHasher.LeftLeafs(LeafCount);
+            SubtreeTask Left = new SubtreeTask(Job, LeafStart, LeftLeafs);
+            SubtreeTask Right = new SubtreeTask(Job, LeafStart + LeftLeafs, LeafCount - LeftLeafs);
+
+            Left.fork();
+            byte[] RightRoot = Right.compute();
+            byte[] LeftRoot = Left.join();
+
+            Workers.get().Hasher.InternalHash(LeftRoot, 0, RightRoot, 0, Root, 0);
+            return Root;
+        }
+
+        private void HashSubtree(byte[] Root) throws IOException {
+            Worker Worker = Workers.get();
+            ByteBuffer Buffer = Worker.Buffer;
+            long Position = LeafStart * LeafSize;
+            int Size = (int) Math.min(LeafCount * LeafSize, Job.FileSize - Position);
+
+            Buffer.clear().limit(Size);
+            while (Buffer.hasRemaining())
+                if (Job.Channel.read(Buffer, Position + Buffer.position()) < 0)
+                    throw new EOFException("file is shorter then expected");
+
+            Worker.Hasher.ComputeRoot(Buffer, 0, Size, Root, 0);
+            Job.Hashed(Size);
+        }
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        byte[] result;
+        Instant start;
+        Instant end;
+        if (!(args.length < 1) && !args[0].isEmpty()) {
+            if (args.length > 1 && args[1].matches("[0-9]+") && Integer.parseInt(args[1]) > 0) {
+                threads = Integer.parseInt(args[1]);
+            }
+            File file = new File(args[0]);
+            if (file.exists()) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    ThexForkJoin thex = new ThexForkJoin(pool);
+                    System.out.println("Running with " + threads + " threads");
+                    System.out.println("Start hashing file: " + file.getName());
+
+                    start = Instant.now();
+                    result = thex.GetTTH(args[0]);
+                    end = Instant.now();
+
+                    System.out.println("Finished hashing file: " + file.getName());
+                    System.out.println("TTH: " + Base32.encode(result));
+                    System.out.println("TimeTaken: " + Duration.between(start, end));
+
+                } catch (IOException e) {
+                    System.err.println("Something went wrong trying to hash file: " + file.getName());
+                    e.printStackTrace();
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                System.out.println("The given file does not exist");
+            }
+        }
+        else {
+            System.out.println("No file given");
+        }
+    }
+}
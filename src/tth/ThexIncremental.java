@@ -0,0 +1,188 @@
+package tth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Java Tiger Tree Hash Incremental
+ *
+ * Updates a stored level of the tree of a file (see ThexLevels) after the file changed, by hashing only
+ * the blocks of the level that hold changed bytes. The changes are given as byte ranges, and a file that
+ * grew or shrank since the level was stored has every block from its old end on hashed as well, so a
+ * file that was only appended to needs nothing else. Every other hash of the level is taken over as it
+ * is and the root is rebuilt from the level, which gives the same root as hashing the whole file.
+ *
+ * The dirty blocks are hashed in parallel on a fork/join pool, each one with positional reads.
+ *
+ * The program takes these arguments,
+ * File to update the level of.
+ * Compact level file of the file, it is written over with the updated level.
+ * START-END (optional, any number), byte ranges that changed, none when the file was only appended to.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexIncremental {
+
+    private static final int HashSize = SubtreeHasher.HashSize;
+
+    private final ForkJoinPool Pool;
+
+    // every worker thread reuses its own buffer and hasher.
+    private static final ThreadLocal<BlockHasher> Hashers = ThreadLocal.withInitial(BlockHasher::new);
+
+    public ThexIncremental() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ThexIncremental(ForkJoinPool Pool) {
+        this.Pool = Pool;
+    }
+
+    /**
+     * Updates the level for a file that was only appended to since the level was stored.
+     */
+    public ThexLevels Append(String Filename, ThexLevels Stored) throws IOException {
+        return Update(Filename, Stored, Collections.emptyList());
+    }
+
+    /**
+     * Updates the level for the file of which the given byte ranges changed since the level was stored.
+     *
+     * @param Ranges changed bytes of the file, a change of the size of the file doesn't have to be included
+     * @return the level at the same block size for the file as it is now
+     */
+    public ThexLevels Update(String Filename, ThexLevels Stored, List<ThexVerify.Range> Ranges) throws IOException {
+        try (FileChannel Channel = FileChannel.open(Paths.get(Filename), StandardOpenOption.READ)) {
+            long FileSize = Channel.size();
+            long BlockSize = Stored.BlockSize();
+            int Count = Math.toIntExact(ThexLevels.Count(FileSize, Stored.Level()));
+            byte[] Hashes = new byte[Count * HashSize];
+            BitSet Dirty = new BitSet(Count);
+
+            for (int i = 0; i < Math.min(Count, Stored.Count()); i++)
+                Stored.Hash(i, Hashes, i * HashSize);
+
+            // from the block that held the old end on, a zero byte file has a single empty block.
+            Dirty.set((int) Math.min(Math.min(FileSize, Stored.FileSize()) / BlockSize, Count - 1), Count);
+
+            for (ThexVerify.Range Range : Ranges) {
+                long End = Math.min(Range.End, FileSize);
+                if (Range.Start < End)
+                    Dirty.set((int) (Range.Start / BlockSize), (int) ((End - 1) / BlockSize) + 1);
+            }
+
+            int[] Blocks = Dirty.stream().toArray();
+            Pool.submit(new BlockTask(Channel, FileSize, BlockSize, Blocks, 0, Blocks.length, Hashes)).get();
+
+            return new ThexLevels(FileSize, Stored.Level(), Hashes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while hashing " + Filename);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new IOException("error while trying to get TTH: " + e.getCause(), e.getCause());
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class BlockTask extends RecursiveAction {
+        private final FileChannel Channel;
+        private final long FileSize;
+        private final long BlockSize;
+        private final int[] Blocks;
+        private final int Start;
+        private final int End;
+        private final byte[] Hashes;
+
+        BlockTask(FileChannel Channel, long FileSize, long BlockSize, int[] Blocks, int Start, int End, byte[] Hashes) {
+            this.Channel = Channel;
+            this.FileSize = FileSize;
+            this.BlockSize = BlockSize;
+            this.Blocks = Blocks;
+            this.Start = Start;
+            this.End = End;
+            this.Hashes = Hashes;
+        }
+
+        @Override
+        protected void compute() {
+            // every block is at least a leaf, a task hashes at least 1 MB unless there is less to do.
+            if (End - Start > 1 && (End - Start) * BlockSize > 2 * 1024 * 1024) {
+                int Half = (Start + End) >>> 1;
+                invokeAll(new BlockTask(Channel, FileSize, BlockSize, Blocks, Start, Half, Hashes),
+                        new BlockTask(Channel, FileSize, BlockSize, Blocks, Half, End, Hashes));
+                return;
+            }
+
+            try {
+                for (int i = Start; i < End; i++) {
+                    long Position = Blocks[i] * BlockSize;
+                    Hashers.get().HashBlock(Channel, Position, Math.min(BlockSize, FileSize - Position),
+                            Hashes, Blocks[i] * HashSize);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        List<ThexVerify.Range> ranges = new ArrayList<>();
+        Instant start;
+        Instant end;
+
+        if (args.length < 2 || args[0].isEmpty() || args[1].isEmpty()) {
+            System.out.println("No file and level file given");
+            return;
+        }
+
+        for (int i = 2; i < args.length; i++) {
+            if (!args[i].matches("[0-9]+-[0-9]+")) {
+                System.out.println("Not a byte range: " + args[i]);
+                return;
+            }
+            String[] range = args[i].split("-");
+            ranges.add(new ThexVerify.Range(Long.parseLong(range[0]), Long.parseLong(range[1])));
+        }
+
+        File file = new File(args[0]);
+        if (file.exists()) {
+            try {
+                ThexLevels stored = ThexLevels.Read(Paths.get(args[1]));
+                System.out.println("Start updating file: " + file.getName() + " from " + stored.FileSize() + " bytes");
+
+                start = Instant.now();
+                ThexLevels levels = new ThexIncremental().Update(args[0], stored, ranges);
+                byte[] result = levels.Root();
+                end = Instant.now();
+
+                levels.Write(Paths.get(args[1]));
+
+                System.out.println("Finished updating file: " + file.getName());
+                System.out.println("TTH: " + Base32.encode(result));
+                System.out.println("TimeTaken: " + Duration.between(start, end));
+
+            } catch (IOException e) {
+                System.err.println("Something went wrong trying to update file: " + file.getName());
+                e.printStackTrace();
+            }
+        } else {
+            System.out.println("The given file does not exist");
+        }
+    }
+}
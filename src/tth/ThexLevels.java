@@ -0,0 +1,237 @@
+package tth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One level of the tiger tree of a file
+ *
+ * Every hash of the level covers BlockSize() bytes of the file, 1024 bytes on the leaf level and twice as
+ * much on every level above it, so a peer that has the level can verify a transfer one block at a time.
+ * The root is rebuilt from the level without the data of the file.
+ *
+ * A level is written either as a compact file: magic, file size, level and the hashes of the level, or in
+ * the THEX breadth first serialization: the root first and every level below it up to this one, each
+ * level as its hashes one after the other.
+ *
+ * The program takes one argument,
+ * Compact level file to rebuild the root from.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexLevels {
+
+    private static final byte[] Magic = {'T', 'T', 'H', 'L', 1};
+    private static final int LeafSize = SubtreeHasher.LeafSize;
+    private static final int HashSize = SubtreeHasher.HashSize;
+    private static final int MaxLevel = 53; // blocks of 2^63 bytes.
+
+    private final long FileSize;
+    private final int Level;
+    private final byte[] Hashes;
+
+    /**
+     * @param FileSize size of the hashed file
+     * @param Level level of the hashes, 0 is the leaf level, a level above the root is the root
+     * @param Hashes hashes of the level next to each other
+     */
+    public ThexLevels(long FileSize, int Level, byte[] Hashes) {
+        if (FileSize < 0 || Level < 0 || Level > MaxLevel)
+            throw new IllegalArgumentException("FileSize " + FileSize + " Level " + Level);
+        if (Hashes.length != Count(FileSize, Level) * HashSize)
+            throw new IllegalArgumentException("expected " + Count(FileSize, Level) + " hashes at level " + Level
+                    + " but got " + Hashes.length / HashSize);
+
+        this.FileSize = FileSize;
+        this.Level = Level;
+        this.Hashes = Hashes;
+    }
+
+    public long FileSize() {
+        return FileSize;
+    }
+
+    public int Level() {
+        return Level;
+    }
+
+    /**
+     * @return bytes of the file covered by one hash, the last hash can cover less.
+     */
+    public long BlockSize() {
+        return (long) LeafSize << Level;
+    }
+
+    public int Count() {
+        return Hashes.length / HashSize;
+    }
+
+    public byte[] Hash(int Index) {
+        return Arrays.copyOfRange(Hashes, Index * HashSize, (Index + 1) * HashSize);
+    }
+
+    public void Hash(int Index, byte[] Output, int OutputOffset) {
+        System.arraycopy(Hashes, Index * HashSize, Output, OutputOffset, HashSize);
+    }
+
+    /**
+     * @return whether the hash at Index of the level equals the 24 bytes of Hash at Offset.
+     */
+    public boolean Matches(int Index, byte[] Hash, int Offset) {
+        return Arrays.equals(Hashes, Index * HashSize, (Index + 1) * HashSize, Hash, Offset, Offset + HashSize);
+    }
+
+    /**
+     * Rebuilds the root of the tree from the hashes of the level.
+     */
+    public byte[] Root() {
+        SubtreeHasher Hasher = new SubtreeHasher(Count());
+
+        System.arraycopy(Hashes, 0, Hasher.LeafHashes(), 0, Hashes.length);
+        Hasher.Reduce(Count());
+        return Arrays.copyOf(Hasher.LeafHashes(), HashSize);
+    }
+
+    /**
+     * Writes the level as a compact file.
+     */
+    public void Write(Path File) throws IOException {
+        try (DataOutputStream Output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(File)))) {
+            Output.write(Magic);
+            Output.writeLong(FileSize);
+            Output.writeByte(Level);
+            Output.write(Hashes);
+        }
+    }
+
+    /**
+     * Writes the root and every level down to this one, breadth first as THEX serializes a tree.
+     */
+    public void WriteThex(OutputStream Output) throws IOException {
+        List<byte[]> Levels = LevelsAbove();
+
+        for (int i = Levels.size() - 1; i >= 0; i--)
+            Output.write(Levels.get(i));
+    }
+
+    /**
+     * Reads a compact level file.
+     */
+    public static ThexLevels Read(Path File) throws IOException {
+        try (DataInputStream Input = new DataInputStream(new BufferedInputStream(Files.newInputStream(File)))) {
+            byte[] Header = new byte[Magic.length];
+            Input.readFully(Header);
+            if (!Arrays.equals(Header, Magic))
+                throw new IOException("not a tree level file: " + File);
+
+            long FileSize = Input.readLong();
+            int Level = Input.readUnsignedByte();
+            if (FileSize < 0 || Level > MaxLevel)
+                throw new IOException("broken tree level file: " + File);
+
+            byte[] Hashes = new byte[Math.toIntExact(Count(FileSize, Level) * HashSize)];
+            Input.readFully(Hashes);
+
+            return new ThexLevels(FileSize, Level, Hashes);
+        }
+    }
+
+    /**
+     * Reads a THEX breadth first serialization from the root down to the given level, of which the file
+     * size has to be known. Every level is checked against the one below it.
+     */
+    public static ThexLevels ReadThex(InputStream Input, long FileSize, int Level) throws IOException {
+        DataInputStream Data = new DataInputStream(Input);
+        List<byte[]> Levels = new ArrayList<>();
+
+        for (int i = Math.max(TopLevel(FileSize), Level); i >= Level; i--) {
+            byte[] Hashes = new byte[Math.toIntExact(Count(FileSize, i) * HashSize)];
+            Data.readFully(Hashes);
+            Levels.add(0, Hashes);
+        }
+
+        ThexLevels Result = new ThexLevels(FileSize, Level, Levels.get(0));
+        List<byte[]> Expected = Result.LevelsAbove();
+
+        for (int i = 0; i < Levels.size(); i++)
+            if (!Arrays.equals(Levels.get(i), Expected.get(i)))
+                throw new IOException("level " + (Level + i) + " of the tree doesn't match the level below it");
+
+        return Result;
+    }
+
+    /**
+     * @return number of hashes at the level of the tree of a file of the given size.
+     */
+    public static long Count(long FileSize, int Level) {
+        long Leafs = SubtreeHasher.LeafCount(FileSize);
+        return ((Leafs - 1) >> Level) + 1;
+    }
+
+    /**
+     * @return level of the hashes that each cover the given number of bytes, which must be a power of two.
+     */
+    public static int LevelOf(long BlockSize) {
+        if (BlockSize < LeafSize || Long.bitCount(BlockSize) != 1)
+            throw new IllegalArgumentException("block size has to be a power of two of at least " + LeafSize);
+
+        return Long.numberOfTrailingZeros(BlockSize / LeafSize);
+    }
+
+    /**
+     * @return level of the root, the levels above it are the root itself.
+     */
+    static int TopLevel(long FileSize) {
+        return 64 - Long.numberOfLeadingZeros(SubtreeHasher.LeafCount(FileSize) - 1);
+    }
+
+    /**
+     * @return this level and every level above it up to the root, lowest first.
+     */
+    private List<byte[]> LevelsAbove() {
+        List<byte[]> Levels = new ArrayList<>();
+        SubtreeHasher Hasher = new SubtreeHasher(Count());
+        int Count = Count();
+
+        Levels.add(Hashes);
+        System.arraycopy(Hashes, 0, Hasher.LeafHashes(), 0, Hashes.length);
+
+        while (Count > 1) {
+            Count = Hasher.ReduceLevel(Count);
+            Levels.add(Arrays.copyOf(Hasher.LeafHashes(), Count * HashSize));
+        }
+
+        return Levels;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args[0].isEmpty()) {
+            System.out.println("No level file given");
+            return;
+        }
+
+        try {
+            ThexLevels levels = Read(Paths.get(args[0]));
+
+            System.out.println("FileSize: " + levels.FileSize());
+            System.out.println("BlockSize: " + levels.BlockSize());
+            System.out.println("Hashes: " + levels.Count());
+            System.out.println("TTH: " + Base32.encode(levels.Root()));
+        } catch (IOException e) {
+            System.err.println("Something went wrong reading level file: " + args[0]);
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package tth;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 
 /**
  * Java Tiger Tree Hash Optimized
@@ -25,12 +27,19 @@ public class ThexOptimized {
     private final   int        ZERO_BYTE_FILE  = 0;    //file with no data.
     private final   int        Block_Size      = 64;   //64k
     private final   int        Leaf_Size       = 1024; //1k - don't change this.
+    private final   int        Hash_Size       = 24;
+    private final   byte       Leaf_Hash       = 0x00; //leaf hash mark.
+    private final   byte       Internal_Hash   = 0x01; //internal hash mark.
 
     private int        Leaf_Count; //number of leafs.
     private byte[][]   HashValues; //array for hash values.
     private FileInputStream FilePtr;    //dest file stream pointer.
 
-    private byte[] GetTTH(String Filename) throws IOException {
+    private final Tiger      TG = new Tiger();
+    private final byte[]     BlockData = new byte[Leaf_Size * Block_Size * 2]; //leafs of a whole block.
+    private final byte[]     BlockHashes = new byte[Hash_Size * Block_Size * 2]; //hashes of a whole block.
+
+    byte[] GetTTH(String Filename) throws IOException {
         byte[] TTH;
 
         try
@@ -83,23 +92,49 @@ public class ThexOptimized {
         //gets the leafs from the file and hashes them.
         int i;
         int Blocks_Count = Leaf_Count / (Block_Size * 2);
+        //only blocks of whole leafs are full, a block with a short last leaf is a small block.
+        long Full_Blocks = FilePtr.getChannel().size() / (Leaf_Size * Block_Size * 2);
 
         if (Leaf_Count % (Block_Size * 2) > 0) Blocks_Count++;
         HashValues = new byte[Blocks_Count][];
 
-        byte[][] HashBlock = new byte[Block_Size][];
+        for (i = 0; i < Full_Blocks; i++) //loops threw the blocks.
+            HashValues[i] = GetBlockHash(); //reads a whole block and compresses it to hash.
+
+        if (i < Blocks_Count) HashValues[i] = CompressSmallBlock(); //this block wasn't big enough.
+
+        Leaf_Count = Blocks_Count;
+    }
+
+    private byte[] GetBlockHash() throws IOException {
+        //reads a whole block of leafs, the leafs are hashed where they are read into.
+        int LeafCount = Block_Size * 2;
+
+        if (FilePtr.readNBytes(BlockData, 0, BlockData.length) < BlockData.length)
+            throw new EOFException("file is shorter then expected");
 
-        for (i = 0; i < Leaf_Count / (Block_Size * 2); i++) //loops threw the blocks.
+        for (int LeafIndex = 0; LeafIndex < LeafCount; LeafIndex++)
+            TG.ComputeHash(Leaf_Hash, BlockData, LeafIndex * Leaf_Size, Leaf_Size, BlockHashes, LeafIndex * Hash_Size);
+
+        return CompressPackedBlock(BlockHashes, LeafCount);
+    }
+
+    private byte[] CompressPackedBlock(byte[] Hashes, int HashCount) {
+        //the hashes are next to each other, every level is written over the level below it.
+        while (HashCount > 1)
         {
-            for (int LeafIndex = 0; LeafIndex < Block_Size; LeafIndex++) //creates new block.
-                HashBlock[LeafIndex] = GetNextLeafHash(); //extracts two leafs to a hash.
+            int Pairs = HashCount / 2;
 
-            HashValues[i] = CompressHashBlock(HashBlock,Block_Size); //compresses the block to hash.
-        }
+            for (int i = 0; i < Pairs; i++) //makes hash from pairs.
+                TG.ComputeHash(Internal_Hash, Hashes, i * Hash_Size * 2, Hash_Size * 2, Hashes, i * Hash_Size);
 
-        if (i < Blocks_Count) HashValues[i] = CompressSmallBlock(); //this block wasn't big enough.
+            //this one doesn't have a pair :(
+            if (HashCount % 2 > 0)
+                System.arraycopy(Hashes, (HashCount - 1) * Hash_Size, Hashes, Pairs * Hash_Size, Hash_Size);
 
-        Leaf_Count = Blocks_Count;
+            HashCount = Pairs + HashCount % 2;
+        }
+        return Arrays.copyOf(Hashes, Hash_Size);
     }
 
     private byte[] GetNextLeafHash() throws IOException {
@@ -0,0 +1,212 @@
+package tth;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Java Tiger Tree Hash Planner
+ *
+ * Picks the engine and the number of threads for a file from its size and the device it is stored on:
+ *
+ * Small files are hashed by a single thread in one pass, starting threads costs more then it saves.
+ * Files on a rotational disk are read in a single stream in file order as well, more readers only make
+ * the disk seek between them.
+ * Files on tmpfs are already in memory and are hashed from a memory mapping with a thread per processor.
+ * Everything else (solid state disks, network shares, devices that can't be found) is hashed by
+ * ThexAdaptive, which measures the speed while it hashes and adds threads until one more doesn't help.
+ *
+ * The device is looked up under /sys/block on Linux, on other systems it is always unknown.
+ *
+ * The program  takes two arguments,
+ * File to hash.
+ * Most threads (optional), default twice the number of processors.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexPlanner {
+
+    private static final long SmallFileSize = 4 * 1024 * 1024; // files up to this size aren't split up.
+    private static final int ReadSize = 1024 * 1024; // bytes read at once by the single thread.
+
+    public enum Engine { Sequential, Mapped, Adaptive }
+
+    public enum Storage { Rotational, SolidState, Memory, Unknown }
+
+    /**
+     * How a file is going to be hashed.
+     */
+    public static final class Plan {
+        public final Engine Engine;
+        public final Storage Storage;
+        public final int Threads; // most threads, ThexAdaptive can end up using fewer.
+
+        Plan(Engine Engine, Storage Storage, int Threads) {
+            this.Engine = Engine;
+            this.Storage = Storage;
+            this.Threads = Threads;
+        }
+
+        @Override
+        public String toString() {
+            return Engine + " on " + Storage + " storage with " + (Engine == ThexPlanner.Engine.Adaptive ? "up to " : "")
+                    + Threads + (Threads == 1 ? " thread" : " threads");
+        }
+    }
+
+    private final int MaxThreads;
+
+    public ThexPlanner() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param MaxThreads most threads any plan may use
+     */
+    public ThexPlanner(int MaxThreads) {
+        if (MaxThreads < 1) throw new IllegalArgumentException("MaxThreads " + MaxThreads);
+
+        this.MaxThreads = MaxThreads;
+    }
+
+    public Plan GetPlan(String Filename) throws IOException {
+        Path File = Paths.get(Filename);
+        long FileSize = Files.size(File);
+        Storage Storage = Probe(File);
+        int Processors = Runtime.getRuntime().availableProcessors();
+
+        if (FileSize <= SmallFileSize || Storage == ThexPlanner.Storage.Rotational)
+            return new Plan(Engine.Sequential, Storage, 1);
+        if (Storage == ThexPlanner.Storage.Memory)
+            return new Plan(Engine.Mapped, Storage, Math.min(Processors, MaxThreads));
+        return new Plan(Engine.Adaptive, Storage, MaxThreads);
+    }
+
+    public byte[] GetTTH(String Filename) throws IOException {
+        return GetTTH(Filename, GetPlan(Filename));
+    }
+
+    public byte[] GetTTH(String Filename, Plan Plan) throws IOException {
+        switch (Plan.Engine) {
+            case Sequential:
+                return HashSequential(Filename);
+
+            case Mapped:
+                ThexThreaded Threaded = new ThexThreaded();
+                Threaded.ThreadCount = Plan.Threads;
+                Threaded.MemoryMapped = true;
+
+                byte[] Root = Threaded.GetTTH_Value(Filename);
+                if (Root == null) throw new IOException("error while trying to get TTH: " + Filename);
+                return Root;
+
+            default:
+                return new ThexAdaptive(Math.min(2, Plan.Threads), Plan.Threads).GetTTH(Filename);
+        }
+    }
+
+    private static byte[] HashSequential(String Filename) throws IOException {
+        TigerTree Tree = new TigerTree();
+        byte[] Data = new byte[ReadSize];
+        int Read;
+
+        try (FileInputStream Input = new FileInputStream(Filename)) {
+            while ((Read = Input.read(Data)) > 0)
+                Tree.update(Data, 0, Read);
+        }
+
+        return Tree.digest();
+    }
+
+    /**
+     * Finds the kind of device the file is stored on.
+     */
+    static Storage Probe(Path File) {
+        try {
+            return Probe(Files.getFileStore(File));
+        } catch (IOException | RuntimeException e) {
+            return Storage.Unknown;
+        }
+    }
+
+    static Storage Probe(FileStore Store) {
+        try {
+            if (Store.type().equals("tmpfs") || Store.type().equals("ramfs"))
+                return Storage.Memory;
+
+            Path Block = Disk(Store);
+            if (Block == null) return Storage.Unknown;
+
+            Path Rotational = Block.resolve("queue").resolve("rotational");
+            if (!Files.exists(Rotational)) return Storage.Unknown;
+
+            return Files.readAllLines(Rotational).get(0).trim().equals("1") ? Storage.Rotational : Storage.SolidState;
+        } catch (IOException | RuntimeException e) {
+            return Storage.Unknown;
+        }
+    }
+
+    /**
+     * Finds the disk the store is on, all partitions of a disk share it.
+     *
+     * @return the directory of the disk under /sys/devices, or null when it can't be found
+     */
+    static Path Disk(FileStore Store) throws IOException {
+        // the name of the store is the device, /dev/mapper names are links to the dm device.
+        Path Device = Paths.get(Store.name());
+        if (!Device.isAbsolute() || !Files.exists(Device)) return null;
+
+        Path Block = Paths.get("/sys/class/block").resolve(Device.toRealPath().getFileName().toString());
+        if (!Files.exists(Block)) return null;
+
+        // a partition has no queue of its own, the disk it is on is the directory above it.
+        Block = Block.toRealPath();
+        if (Files.exists(Block.resolve("partition"))) Block = Block.getParent();
+
+        return Block;
+    }
+
+    public static void main(String[] args) {
+        ThexPlanner planner = new ThexPlanner();
+        byte[] result;
+        Instant start;
+        Instant end;
+        if (!(args.length < 1) && !args[0].isEmpty()) {
+            if (args.length > 1 && args[1].matches("[0-9]+") && Integer.parseInt(args[1]) > 0) {
+                planner = new ThexPlanner(Integer.parseInt(args[1]));
+            }
+            File file = new File(args[0]);
+            if (file.exists()) {
+                try {
+                    Plan plan = planner.GetPlan(args[0]);
+                    System.out.println("Plan: " + plan);
+                    System.out.println("Start hashing file: " + file.getName());
+
+                    start = Instant.now();
+                    result = planner.GetTTH(args[0], plan);
+                    end = Instant.now();
+
+                    System.out.println("Finished hashing file: " + file.getName());
+                    System.out.println("TTH: " + Base32.encode(result));
+                    System.out.println("TimeTaken: " + Duration.between(start, end));
+
+                } catch (IOException e) {
+                    System.err.println("Something went wrong trying to hash file: " + file.getName());
+                    e.printStackTrace();
+                }
+            } else {
+                System.out.println("The given file does not exist");
+            }
+        }
+        else {
+            System.out.println("No file given");
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package tth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+/**
+ * Java Tiger Tree Hash Resumable
+ *
+ * Hashes a file so that a job that is stopped halfway doesn't have to start over. The threads hash the
+ * aligned 1 MB chunks of the file in parallel and a TigerTree takes their roots over in file order, which
+ * only keeps the roots of the completed aligned subtrees. Every few seconds that state is written to a
+ * small checkpoint file together with the size, modification time and file key of the file, and a run
+ * that finds a checkpoint of the same unchanged file continues after the last checkpointed byte.
+ *
+ * A checkpoint is at most a few KB however big the file is, it is written to a temporary file that is
+ * moved over the last one so a crash leaves either the old or the new one, and the threads go on hashing
+ * the chunks ahead while it is written. At most the bytes after the last checkpoint are hashed again. The
+ * checkpoint is deleted once the root is known. A checkpoint that can't be written, next to a file on read
+ * only media for one, is reported once and the file is hashed on without checkpoints.
+ *
+ * Checkpoint: magic, file size, modification time in nanoseconds, file key, chunk level, the state of the
+ * TigerTree (see TigerTree.WriteState) and a CRC32 of all of that.
+ *
+ * The program takes these arguments,
+ * File to hash.
+ * Number of threads (optional), default 4.
+ * --checkpoint FILE (optional), default the file name with .tthr added, next to the file.
+ * --interval SECONDS (optional), time between two checkpoints, default 5.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexResumable {
+
+    private static final byte[] Magic = {'T', 'T', 'H', 'R', 1};
+    private static final int HashSize = BlockHasher.HashSize;
+    private static final int ChunkLevel = 10; // a chunk is the subtree of 1024 leafs.
+    private static final int ChunkSize = SubtreeHasher.LeafSize << ChunkLevel; // 1 MB
+    private static final int Window = 1024; // chunks the threads can be ahead of the tree.
+    private static final int MaxCheckpointSize = 64 * 1024;
+
+    int ThreadCount = 4;
+    long Interval = TimeUnit.SECONDS.toNanos(5); // between two checkpoints.
+
+    private final Path File;
+    private final Path Checkpoint;
+    private long ResumedAt;
+    private volatile IOException WorkerError; // first error of a worker thread.
+    private boolean CheckpointFailed; // no more checkpoints for the file that is hashed.
+
+    public ThexResumable(Path File, Path Checkpoint) {
+        this.File = File;
+        this.Checkpoint = Checkpoint;
+    }
+
+    public ThexResumable(Path File) {
+        this(File, File.resolveSibling(File.getFileName() + ".tthr"));
+    }
+
+    /**
+     * @return bytes of the last hashed file that were taken from a checkpoint instead of being read
+     */
+    public long ResumedAt() {
+        return ResumedAt;
+    }
+
+    public byte[] GetTTH() throws IOException, InterruptedException {
+        BasicFileAttributes Attributes = Files.readAttributes(File, BasicFileAttributes.class);
+        long FileSize = Attributes.size();
+        byte[] Header = Header(Attributes);
+        TigerTree Tree = new TigerTree();
+
+        ResumedAt = Load(Header, Tree, FileSize) ? Tree.length() : 0;
+
+        long Chunks = (FileSize + ChunkSize - 1) / ChunkSize;
+        long First = ResumedAt / ChunkSize;
+        byte[] Roots = new byte[Window * HashSize];
+        AtomicLongArray Done = new AtomicLongArray(Window); // the chunk of which the root is in each slot.
+        AtomicLong NextChunk = new AtomicLong(First);
+        AtomicLong Taken = new AtomicLong(First); // chunks the tree took over.
+        Thread[] Threads = new Thread[ThreadCount];
+        WorkerError = null;
+        CheckpointFailed = false;
+
+        for (int i = 0; i < Window; i++)
+            Done.set(i, -1);
+
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            for (int i = 0; i < ThreadCount; i++) {
+                Threads[i] = new Thread(() -> {
+                    BlockHasher Hasher = new BlockHasher();
+                    long Chunk;
+
+                    try {
+                        while ((Chunk = NextChunk.getAndIncrement()) < Chunks && WorkerError == null) {
+                            // a slot is only written again once the tree took over the root that was in it.
+                            for (int Tries = 0; Chunk >= Taken.get() + Window && WorkerError == null; Tries++)
+                                RingBuffer.Wait(Tries);
+
+                            int Slot = (int) (Chunk % Window);
+                            long Position = Chunk * ChunkSize;
+
+                            Hasher.HashBlock(Channel, Position, Math.min(ChunkSize, FileSize - Position), Roots, Slot * HashSize);
+                            Done.set(Slot, Chunk);
+                        }
+                    } catch (IOException e) {
+                        if (WorkerError == null) WorkerError = e;
+                    }
+                });
+                Threads[i].setName(String.valueOf(i));
+                Threads[i].start();
+            }
+
+            try {
+                long NextCheckpoint = System.nanoTime() + Interval;
+
+                for (long Chunk = First; Chunk < Chunks; Chunk++) {
+                    int Slot = (int) (Chunk % Window);
+
+                    for (int Tries = 0; Done.get(Slot) != Chunk; Tries++) {
+                        if (WorkerError != null) throw WorkerError;
+                        RingBuffer.Wait(Tries);
+                    }
+
+                    long Position = Chunk * ChunkSize;
+                    Tree.UpdateRoot(Roots, Slot * HashSize, ChunkLevel, Math.min(ChunkSize, FileSize - Position));
+                    Taken.set(Chunk + 1);
+
+                    // the last chunk can be short, nothing follows it so there is nothing to checkpoint.
+                    if (!CheckpointFailed && System.nanoTime() >= NextCheckpoint && Chunk + 1 < Chunks) {
+                        TrySave(Header, Tree);
+                        NextCheckpoint = System.nanoTime() + Interval;
+                    }
+                }
+            } catch (IOException e) {
+                if (WorkerError == null) WorkerError = e; // stops the other threads.
+
+                // keeps what was hashed up to the error for the next run.
+                if (!CheckpointFailed && Tree.length() > ResumedAt && Taken.get() < Chunks)
+                    TrySave(Header, Tree);
+                throw e;
+            } finally {
+                for (Thread Thread : Threads)
+                    if (Thread != null) Thread.join();
+            }
+        }
+
+        byte[] Root = Tree.digest();
+        try {
+            Files.deleteIfExists(Checkpoint);
+        } catch (IOException e) {
+            // a checkpoint that can't be removed doesn't fit the file when it changes, it is ignored then.
+            System.err.println("can't remove checkpoint " + Checkpoint + ": " + e);
+        }
+
+        return Root;
+    }
+
+    /**
+     * The start of the checkpoint that identifies the file, a checkpoint of another file or of the file
+     * before it was changed starts differently.
+     */
+    private static byte[] Header(BasicFileAttributes Attributes) throws IOException {
+        ByteArrayOutputStream Bytes = new ByteArrayOutputStream();
+        DataOutputStream Output = new DataOutputStream(Bytes);
+        Object Key = Attributes.fileKey();
+
+        Output.write(Magic);
+        Output.writeLong(Attributes.size());
+        Output.writeLong(Attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        Output.writeUTF(Key == null ? "" : Key.toString());
+        Output.writeByte(ChunkLevel);
+
+        return Bytes.toByteArray();
+    }
+
+    /**
+     * A checkpoint that can't be written, the directory is read only or the disk is full, doesn't stop the
+     * hashing, the file is only hashed without checkpoints from then on.
+     */
+    private void TrySave(byte[] Header, TigerTree Tree) {
+        try {
+            Save(Header, Tree);
+        } catch (IOException e) {
+            System.err.println("can't write checkpoint " + Checkpoint + ", going on without: " + e);
+            CheckpointFailed = true;
+        }
+    }
+
+    private void Save(byte[] Header, TigerTree Tree) throws IOException {
+        ByteArrayOutputStream Bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream Output = new DataOutputStream(Bytes);
+        CRC32 Check = new CRC32();
+
+        Output.write(Header);
+        Tree.WriteState(Output);
+        Check.update(Bytes.toByteArray());
+        Output.writeInt((int) Check.getValue());
+
+        Path Temp = Checkpoint.resolveSibling(Checkpoint.getFileName() + ".tmp");
+        ByteBuffer Data = ByteBuffer.wrap(Bytes.toByteArray());
+
+        try {
+            try (FileChannel Channel = FileChannel.open(Temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (Data.hasRemaining())
+                    Channel.write(Data);
+                Channel.force(true);
+            }
+
+            Files.move(Temp, Checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // a half written one on a full disk.
+            try {
+                Files.deleteIfExists(Temp);
+            } catch (IOException Undeleted) {
+                e.addSuppressed(Undeleted);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Continues the tree from the checkpoint when there is one of this file, a checkpoint that doesn't fit
+     * is left alone and the file is hashed from the start.
+     *
+     * @return true when the tree was continued
+     */
+    private boolean Load(byte[] Header, TigerTree Tree, long FileSize) {
+        if (!Files.isRegularFile(Checkpoint)) return false;
+
+        try {
+            if (Files.size(Checkpoint) > MaxCheckpointSize) throw new IOException("too big for a checkpoint");
+
+            byte[] Data = Files.readAllBytes(Checkpoint);
+            if (Data.length < Header.length + Integer.BYTES || !Arrays.equals(Data, 0, Magic.length, Magic, 0, Magic.length))
+                throw new IOException("not a checkpoint");
+
+            CRC32 Check = new CRC32();
+            Check.update(Data, 0, Data.length - Integer.BYTES);
+            if ((int) Check.getValue() != ByteBuffer.wrap(Data).getInt(Data.length - Integer.BYTES))
+                throw new IOException("broken checkpoint");
+
+            if (!Arrays.equals(Data, 0, Header.length, Header, 0, Header.length)) {
+                System.err.println("checkpoint " + Checkpoint + " is of another file or the file changed, starting over");
+                return false;
+            }
+
+            ByteArrayInputStream Bytes = new ByteArrayInputStream(Data, Header.length, Data.length - Header.length - Integer.BYTES);
+            Tree.ReadState(new DataInputStream(Bytes));
+            if (Bytes.available() > 0 || Tree.length() % ChunkSize != 0 || Tree.length() > FileSize)
+                throw new IOException("broken checkpoint");
+
+            return true;
+        } catch (IOException e) {
+            System.err.println("ignoring checkpoint " + Checkpoint + ": " + e.getMessage());
+            Tree.reset();
+            return false;
+        }
+    }
+
+    public static void main(String[] args) {
+        String checkpoint = null;
+        long interval = 5;
+        byte[] result;
+        Instant start;
+        Instant end;
+
+        if (args.length < 1 || args[0].isEmpty()) {
+            System.out.println("No file given");
+            return;
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--checkpoint") && i + 1 < args.length)
+                checkpoint = args[++i];
+            else if (args[i].equals("--interval") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                interval = Long.parseLong(args[++i]);
+        }
+
+        File file = new File(args[0]);
+        if (!file.exists()) {
+            System.out.println("The given file does not exist");
+            return;
+        }
+
+        ThexResumable thex = (checkpoint == null) ? new ThexResumable(file.toPath())
+                : new ThexResumable(file.toPath(), Paths.get(checkpoint));
+        if (args.length > 1 && args[1].matches("[0-9]+") && Integer.parseInt(args[1]) > 0)
+            thex.ThreadCount = Integer.parseInt(args[1]);
+        thex.Interval = TimeUnit.SECONDS.toNanos(interval);
+
+        try {
+            System.out.println("Running with " + thex.ThreadCount + " threads, checkpoint: " + thex.Checkpoint);
+            System.out.println("Start hashing file: " + file.getName());
+
+            start = Instant.now();
+            result = thex.GetTTH();
+            end = Instant.now();
+
+            if (thex.ResumedAt() > 0)
+                System.out.println("Resumed from the checkpoint at byte " + thex.ResumedAt() + " of " + file.length());
+            System.out.println("Finished hashing file: " + file.getName());
+            System.out.println("TTH: " + Base32.encode(result));
+            System.out.println("TimeTaken: " + Duration.between(start, end));
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Something went wrong trying to hash file: " + file.getName());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package tth;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Java Tiger Tree Hash Scheduler
+ *
+ * Hashes the files of any number of jobs at the same time without the jobs getting in each other's way on
+ * a disk. Files are grouped by the device they are stored on (the disk found under /sys/block, all of its
+ * partitions together, or the file store when there is no disk), and every device has readers and a pool
+ * of buffers of its own: a rotational disk gets a single reader that reads one file after the other in
+ * file order, so the heads never move between two streams, a solid state disk gets several readers and an
+ * NVMe disk more, memory a reader per processor. The buffers of a device bound the blocks it has read
+ * ahead of the hashing, its queue depth.
+ *
+ * The readers only read, the hashing is done by one pool of threads shared by all devices. Every thread
+ * takes its next block from the devices in turn, so every device with blocks waiting gets an equal share
+ * of the processors and a slow disk leaves the rest to the others: the total is the sum of what the
+ * devices deliver, not the slowest device holding everything up.
+ *
+ * A file is read in aligned 1 MB chunks, a hashing thread hashes a chunk to the root of its subtree and
+ * the thread that hashes the last chunk of a file reduces the roots to the root of the file.
+ *
+ * Results are written in the order they complete as: path TAB size TAB base32 root, the bytes read from
+ * every device are written to standard error at the end.
+ *
+ * The program takes these arguments,
+ * Files or directories to hash, directories are walked recursively.
+ * --threads N (optional), number of hashing threads, default the number of processors.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexScheduler implements Closeable {
+
+    private static final int HashSize = SubtreeHasher.HashSize;
+    private static final int ChunkLeafs = 1024;
+    private static final int ChunkSize = SubtreeHasher.LeafSize * ChunkLeafs; // 1 MB
+
+    private final Thread[] Hashers;
+    private final Map<FileStore, Device> Stores = new ConcurrentHashMap<>();
+    private final Map<String, Device> Devices = new ConcurrentHashMap<>();
+    private final List<Device> DeviceList = new CopyOnWriteArrayList<>(); // the hashers take turns over these.
+    private final Semaphore Waiting = new Semaphore(0); // a permit for every read block that isn't hashed yet.
+    private volatile boolean Closed;
+
+    /**
+     * A file that is being hashed.
+     */
+    private static final class Job {
+        final Path File;
+        final long Size;
+        final int Chunks;
+        final byte[] Roots; // of the chunks.
+        final AtomicInteger Left; // chunks not hashed yet.
+        final CompletableFuture<byte[]> Result = new CompletableFuture<>();
+        int NextChunk; // the next chunk to read, under the lock of the device.
+        volatile boolean Failed;
+
+        Job(Path File, long Size) {
+            this.File = File;
+            this.Size = Size;
+            this.Chunks = Math.toIntExact((Size + ChunkSize - 1) / ChunkSize);
+            this.Roots = new byte[Chunks * HashSize];
+            this.Left = new AtomicInteger(Chunks);
+        }
+
+        void Fail(Exception Error) {
+            Failed = true;
+            Result.completeExceptionally(Error);
+        }
+    }
+
+    /**
+     * A chunk of a file read by a device, waiting to be hashed.
+     */
+    private static final class Block {
+        final ByteBuffer Data = ByteBuffer.allocate(ChunkSize);
+        Job Job;
+        int Chunk;
+        int Size;
+    }
+
+    /**
+     * The readers, buffers and waiting files of one device.
+     */
+    private final class Device {
+        final String Name;
+        final ThexPlanner.Storage Storage;
+        final int Readers;
+        final RingBuffer<Block> Free;
+        final RingBuffer<Block> Full;
+        final Deque<Job> Jobs = new ArrayDeque<>(); // waiting to be read, under the lock of the device.
+        final LongAdder BytesRead = new LongAdder();
+        Job Current; // being read.
+
+        Device(String Name, ThexPlanner.Storage Storage) {
+            int Processors = Runtime.getRuntime().availableProcessors();
+
+            this.Name = Name;
+            this.Storage = Storage;
+
+            // more readers than that only make a disk seek, or fight for the queue of the device.
+            switch (Storage) {
+                case Rotational: Readers = 1; break;
+                case SolidState: Readers = Name.startsWith("nvme") ? 8 : 4; break;
+                case Memory: Readers = Processors; break;
+                default: Readers = 2;
+            }
+
+            int Buffers = Readers * 4;
+            Free = new RingBuffer<>(Buffers);
+            Full = new RingBuffer<>(Buffers);
+            for (int i = 0; i < Buffers; i++)
+                Free.Put(new Block());
+
+            for (int i = 0; i < Readers; i++) {
+                Thread Reader = new Thread(this::Read);
+                Reader.setName("thex-scheduler-read-" + Name);
+                Reader.setDaemon(true);
+                Reader.start();
+            }
+        }
+
+        synchronized void Add(Job Job) {
+            Jobs.add(Job);
+            notifyAll();
+        }
+
+        /**
+         * Picks the chunk to read next, the file that is being read first, waits while there is none.
+         *
+         * @return the job with its chunk counted as taken, or null once the scheduler is closed
+         */
+        synchronized Job Next() throws InterruptedException {
+            while (!Closed) {
+                if (Current != null && Current.NextChunk < Current.Chunks && !Current.Failed) {
+                    Current.NextChunk++;
+                    return Current;
+                }
+
+                Current = Jobs.poll();
+                if (Current == null) wait();
+            }
+            return null;
+        }
+
+        private void Read() {
+            Job Open = null; // the file the channel is open for.
+            FileChannel Channel = null;
+
+            try {
+                while (true) {
+                    Job Job;
+                    int Chunk;
+
+                    // an idle reader doesn't keep a file open.
+                    synchronized (this) {
+                        if (Channel != null && Jobs.isEmpty() && (Current == null || Current.NextChunk >= Current.Chunks)) {
+                            Close(Channel);
+                            Channel = null;
+                            Open = null;
+                        }
+                        if ((Job = Next()) == null) break;
+                        Chunk = Job.NextChunk - 1;
+                    }
+
+                    Block Block = Free.Take();
+
+                    try {
+                        if (Open != Job) {
+                            Close(Channel);
+                            Channel = null;
+                            Channel = FileChannel.open(Job.File, StandardOpenOption.READ);
+                            Open = Job;
+                        }
+
+                        long Position = (long) Chunk * ChunkSize;
+                        Block.Size = (int) Math.min(ChunkSize, Job.Size - Position);
+                        Block.Data.clear().limit(Block.Size);
+                        while (Block.Data.hasRemaining())
+                            if (Channel.read(Block.Data, Position + Block.Data.position()) < 0)
+                                throw new EOFException("file is shorter then expected");
+                    } catch (IOException e) {
+                        Free.Put(Block);
+                        if (!Job.Failed) Job.Fail(e);
+                        continue;
+                    }
+
+                    Block.Job = Job;
+                    Block.Chunk = Chunk;
+                    BytesRead.add(Block.Size);
+
+                    Full.Put(Block);
+                    Waiting.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                Close(Channel);
+            }
+        }
+    }
+
+    /**
+     * @param HashThreads threads hashing the blocks of all devices
+     */
+    public ThexScheduler(int HashThreads) {
+        Hashers = new Thread[HashThreads];
+
+        for (int i = 0; i < HashThreads; i++) {
+            Hashers[i] = new Thread(this::Hash);
+            Hashers[i].setName("thex-scheduler-hash-" + i);
+            Hashers[i].setDaemon(true);
+            Hashers[i].start();
+        }
+    }
+
+    /**
+     * Queues the file on the device it is stored on.
+     *
+     * @return the root once the file is hashed
+     */
+    public CompletableFuture<byte[]> Submit(Path File) {
+        try {
+            long Size = Files.size(File);
+            Job Job = new Job(File, Size);
+
+            // zero bytes is a single empty leaf, there is nothing to read.
+            if (Job.Chunks == 0) {
+                byte[] Root = new byte[HashSize];
+                new SubtreeHasher(1).ComputeRoot(ByteBuffer.allocate(0), 0, 0, Root, 0);
+                Job.Result.complete(Root);
+                return Job.Result;
+            }
+
+            DeviceOf(File).Add(Job);
+            return Job.Result;
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        Closed = true;
+
+        for (Device Device : DeviceList)
+            synchronized (Device) {
+                Device.notifyAll();
+            }
+        for (Thread Hasher : Hashers)
+            Hasher.interrupt();
+    }
+
+    private Device DeviceOf(Path File) throws IOException {
+        FileStore Store = Files.getFileStore(File);
+        Device Device = Stores.get(Store);
+        if (Device != null) return Device;
+
+        Path Disk = null;
+        try {
+            Disk = ThexPlanner.Disk(Store);
+        } catch (IOException | RuntimeException e) {
+            // no disk to be found, the store is the device.
+        }
+
+        String Name = (Disk != null) ? Disk.getFileName().toString() : Store.name() + " (" + Store.type() + ")";
+        Device = Devices.computeIfAbsent(Name, Key -> {
+            Device Found = new Device(Key, ThexPlanner.Probe(Store));
+            DeviceList.add(Found);
+            return Found;
+        });
+
+        Stores.put(Store, Device);
+        return Device;
+    }
+
+    private void Hash() {
+        SubtreeHasher Hasher = new SubtreeHasher(ChunkLeafs);
+        int Turn = 0;
+
+        try {
+            while (!Closed) {
+                Waiting.acquire();
+
+                // every permit stands for a block, starting at the device after the last one keeps it fair.
+                Block Block = null;
+                Device From = null;
+                for (int Tries = 0; Block == null; Tries++) {
+                    List<Device> All = DeviceList;
+
+                    for (int i = 0; i < All.size() && Block == null; i++) {
+                        From = All.get((Turn + i) % All.size());
+                        Block = From.Full.Poll();
+                        if (Block != null) Turn = (Turn + i + 1) % All.size();
+                    }
+                    if (Block == null) RingBuffer.Wait(Tries);
+                }
+
+                Job Job = Block.Job;
+                if (!Job.Failed)
+                    Hasher.ComputeRoot(Block.Data, 0, Block.Size, Job.Roots, Block.Chunk * HashSize);
+
+                Block.Job = null;
+                From.Free.Put(Block);
+
+                if (Job.Left.decrementAndGet() == 0 && !Job.Failed)
+                    Job.Result.complete(Reduce(Job));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] Reduce(Job Job) {
+        if (Job.Chunks == 1) return Job.Roots;
+
+        SubtreeHasher Roots = new SubtreeHasher(Job.Chunks);
+        System.arraycopy(Job.Roots, 0, Roots.LeafHashes(), 0, Job.Roots.length);
+        Roots.Reduce(Job.Chunks);
+
+        return Arrays.copyOf(Roots.LeafHashes(), HashSize);
+    }
+
+    private static void Close(FileChannel Channel) {
+        try {
+            if (Channel != null) Channel.close();
+        } catch (IOException e) {
+            // only read from, nothing is lost.
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (!args[i].isEmpty())
+                paths.add(args[i]);
+        }
+
+        if (paths.isEmpty()) {
+            System.out.println("No files or directories given");
+            return;
+        }
+
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        ThexScheduler scheduler = new ThexScheduler(threads);
+        List<CompletableFuture<byte[]>> results = new ArrayList<>();
+        Instant start = Instant.now();
+
+        for (String path : paths) {
+            Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path File, BasicFileAttributes Attributes) {
+                    if (!Attributes.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    results.add(scheduler.Submit(File).whenComplete((Root, Error) -> {
+                        synchronized (output) {
+                            try {
+                                if (Error != null)
+                                    System.err.println("error while trying to get TTH for file: " + File + ". (" + Error.getMessage() + ")");
+                                else
+                                    output.write(File + "\t" + Attributes.size() + "\t" + Base32.encode(Root) + "\n");
+                            } catch (IOException e) {
+                                System.err.println("error while writing the result: " + e.getMessage());
+                            }
+                        }
+                    }));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path File, IOException Error) {
+                    System.err.println("error while trying to read: " + File + ". (" + Error.getMessage() + ")");
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        for (CompletableFuture<byte[]> result : results)
+            result.handle((Root, Error) -> null).join();
+        scheduler.close();
+
+        synchronized (output) {
+            output.flush();
+        }
+
+        Duration taken = Duration.between(start, Instant.now());
+        for (Device device : scheduler.DeviceList)
+            System.err.println("Device " + device.Name + ": " + device.Storage + ", " + device.Readers +
+                    (device.Readers == 1 ? " reader, " : " readers, ") + device.BytesRead.sum() + " bytes read");
+        System.err.println("TimeTaken: " + taken);
+    }
+}
@@ -1,11 +1,30 @@
 package tth;
 
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Java Tiger Tree Hash Threaded
@@ -21,9 +40,39 @@ import java.time.Instant;
  * Although it has not been tested if more threads when using a disk with a read speed above 500mb/s has an
  * effect on performance.
  *
- * The program  takes two arguments,
+ * The leafs are either read through a stream into a data block, or hashed straight from a memory mapping
+ * of the file which saves copying every leaf and allocating a new data block for every megabyte.
+ * With direct reads the file is read around the page cache (O_DIRECT) into aligned buffers, so hashing
+ * terabytes doesn't push the working set of everything else on the host out of memory.
+ *
+ * In the pipeline the file isn't split into a part per thread. A reader reads the blocks of the file in
+ * order into buffers of a fixed pool and hands them to the hashing threads through a lock free ring, so
+ * a rotational disk sees a single sequential read and no buffers are allocated after the start.
+ *
+ * Other digests of the whole file (SHA-256, MD5, Tiger, ...) can be taken from the same read. The readers
+ * hand every block of the pipeline in the order of the file to a thread per digest as well, a buffer goes
+ * back to the pool once the hasher and every digest are done with it.
+ *
+ * Every level of the tree is built in memory, one of them can be kept and written out for peers that verify
+ * a transfer block by block (see ThexLevels), without reading the file a second time.
+ *
+ * The program  takes these arguments,
  * File to hash.
  * Number of threads (optional), default 4.
+ * --mmap (optional), hash the leafs from a memory mapping of the file instead of reading them.
+ * --direct (optional), read the file with direct I/O past the page cache.
+ * --pipeline (optional), read the file in order by one reader thread that hands the blocks to the hashing threads.
+ * --readers N (optional), number of reader threads of the pipeline, default 1.
+ * --zeros (optional), scan for runs of zeros and take their hashes over instead of hashing them, for sparse
+ * and preallocated files.
+ * --store heap|direct|mapped (optional), where the tree is kept: on the heap (default), off the heap, or in a
+ * mapped temporary file for trees bigger then memory.
+ * --metrics FILE (optional), append a JSON line with the measurements of the file (see HashMetrics).
+ * --digest NAMES (optional), comma separated digests to take of the whole file in the same read, any
+ * MessageDigest of the platform such as SHA-256 or MD5, or Tiger. Uses the pipeline.
+ * --export FILE (optional), write the level of the tree with hashes of --block bytes to a compact level file.
+ * --thex (optional), write the levels from the root down to that level in the THEX serialization instead.
+ * --block BYTES (optional), bytes covered by one hash of the exported level, a power of two, default 65536.
  *
  * @author Dion Woolley, woolley.dion@gmail.com
  */
@@ -34,43 +83,122 @@ public class ThexThreaded {
     private final byte LeafHash = 0x00;
     private final byte InternalHash = 0x01;
     private final int LeafSize = 1024; // Do not change this value
+    private final int HashSize = 24;
     private final int DataBlockSize = LeafSize * 1024; // 1 MB
-    private int ThreadCount = 4;
+    private final int MapBlockSize = DataBlockSize * 64; // 64 MB
+    int ThreadCount = 4;
+    boolean MemoryMapped = false;
+    boolean DirectIO = false;
+    boolean Pipelined = false;
+    int ReaderCount = 1;
+    TreeStore.Backing Storage = TreeStore.Backing.Heap;
+    HashMetrics Metrics; // gets the measurements of every file when set.
+    boolean SkipZeros = false;
+    List<MessageDigest> Digests = new ArrayList<>(); // fed the whole file in order when there are any.
     private final int ZERO_BYTE_FILE = 0;
+    private static final int Group = ZeroHashes.Group; // leafs or pairs hashed and stored at once.
 
-    private byte[][][] TTH;
+    private TreeStore TTH;
     private int LevelCount;
     private String Filename;
-    private int LeafCount;
+    private long LeafCount;
     private FileInputStream FilePtr;
+    private HashStats Stats; // of the file being hashed, null when nothing is measured.
+    private byte[][] DigestValues;
 
-    private FileBlock[] FileParts = new FileBlock[ThreadCount];
-    private Thread[] ThreadsList = new Thread[ThreadCount];
+    private FileBlock[] FileParts;
+    private Thread[] ThreadsList;
+    private volatile IOException WorkerError; // first error of a worker thread.
 
-    private byte[] GetTTH_Value(String Filename) throws IOException {
+    byte[] GetTTH_Value(String Filename) throws IOException {
         GetTTH(Filename);
-        return TTH[LevelCount - 1][0];
+        return (TTH == null) ? null : TTH.Get(LevelCount - 1, 0);
+    }
+
+    /**
+     * @return the values of the Digests for the last hashed file, in the same order, or null when it failed
+     */
+    byte[][] GetDigestValues() {
+        return DigestValues;
+    }
+
+    /**
+     * @return the level of the tree of the last hashed file of which each hash covers the given block size.
+     */
+    private ThexLevels GetLevels(long BlockSize) throws IOException {
+        int Level = ThexLevels.LevelOf(BlockSize);
+        int Nodes = Math.min(Level, LevelCount - 1); // the levels above the root are the root.
+        byte[] Hashes = new byte[Math.toIntExact(TTH.Count(Nodes) * HashSize)];
+        long FileSize = Files.size(Paths.get(Filename));
+
+        TTH.Get(Nodes, 0, Hashes, 0, Hashes.length / HashSize);
+
+        return new ThexLevels(FileSize, Level, Hashes);
     }
 
     private void GetTTH(String Filename) throws IOException {
         this.Filename = Filename;
+        TTH = null;
+        DigestValues = null;
+        for (MessageDigest Digest : Digests)
+            Digest.reset();
+        Stats = (Metrics != null || HashEvents.Enabled()) ? new HashStats(Filename, Mode()) : null;
 
         try {
             OpenFile();
 
-            if (Initialize()) {
+            boolean Hash = Initialize();
+            if (Stats != null) {
+                Stats.Size = FilePtr.getChannel().size();
+                Stats.Leafs = LeafCount;
+                Stats.Levels = LevelCount;
+            }
+
+            if (Hash) {
                 SplitFile();
                 StartThreads();
+
+                if (Stats != null) Stats.ReduceBegin();
                 CompressTree();
+                if (Stats != null) Stats.ReduceEnd();
+            }
+
+            // an empty file never reaches the pipeline, its digests are those of no bytes.
+            DigestValues = new byte[Digests.size()][];
+            for (int i = 0; i < DigestValues.length; i++)
+                DigestValues[i] = Digests.get(i).digest();
+
+            if (Stats != null) {
+                Stats.End();
+                if (Metrics != null) Metrics.Add(Stats);
             }
         } catch (Exception e) {
             System.err.println("error while trying to get TTH: " + e.getMessage());
             StopThreads();
+            TTH = null;
+            DigestValues = null;
         }
 
         if (FilePtr != null) FilePtr.close();
     }
 
+    /**
+     * Builds the tree above the given leaf hashes, packed next to each other, without a file, for
+     * measuring CompressTree on its own.
+     *
+     * @return the root
+     */
+    byte[] CompressLeafs(byte[] Leafs) throws IOException {
+        LeafCount = Leafs.length / HashSize;
+        TTH = new TreeStore(LeafCount, Storage);
+        LevelCount = TTH.Levels();
+
+        TTH.Put(0, 0, Leafs, 0, (int) LeafCount);
+
+        CompressTree();
+        return TTH.Get(LevelCount - 1, 0);
+    }
+
     private void OpenFile() throws FileNotFoundException {
         FilePtr = new FileInputStream(Filename); //,DataBlockSize);
     }
@@ -79,29 +207,20 @@ public class ThexThreaded {
         if (FilePtr.getChannel().size() == ZERO_BYTE_FILE) {
             Tiger TG = new Tiger();
 
-            LevelCount = 1;
-
-            TTH = new byte[1][][];
-            TTH[0] = new byte[1][];
+            LeafCount = 1;
+            TTH = new TreeStore(LeafCount, Storage);
+            LevelCount = TTH.Levels();
 
-            TTH[0][0] = TG.ComputeHash(new byte[1]);
+            TTH.Put(0, 0, TG.ComputeHash(new byte[1]), 0, 1);
 
             return false;
         }
         else {
-            int i = 1;
-            LevelCount = 1;
-
-            LeafCount = (int) (FilePtr.getChannel().size() / LeafSize);
+            LeafCount = FilePtr.getChannel().size() / LeafSize;
             if ((FilePtr.getChannel().size() % LeafSize) > 0) LeafCount++;
 
-            while (i < LeafCount) {
-                i *= 2;
-                LevelCount++;
-            }
-
-            TTH = new byte[LevelCount][][];
-            TTH[0] = new byte[LeafCount][];
+            TTH = new TreeStore(LeafCount, Storage);
+            LevelCount = TTH.Levels();
         }
 
         return true;
@@ -110,125 +229,494 @@ public class ThexThreaded {
     private void SplitFile() throws IOException {
         long LeafsInPart = LeafCount / ThreadCount;
 
-        // check if file is bigger then 1 MB or don't use threads
-        if (FilePtr.getChannel().size() > 1024 * 1024)
-            for (int i = 0; i < ThreadCount; i++)
-                FileParts[i] = new FileBlock(LeafsInPart * LeafSize * i,
-                        LeafsInPart * LeafSize * (i + 1));
+        // check if file is bigger then 1 MB or don't use threads, the last part is then the whole file.
+        if (FilePtr.getChannel().size() <= 1024 * 1024)
+            LeafsInPart = 0;
+
+        FileParts = new FileBlock[ThreadCount];
+        for (int i = 0; i < ThreadCount; i++)
+            FileParts[i] = new FileBlock(LeafsInPart * LeafSize * i,
+                    LeafsInPart * LeafSize * (i + 1));
 
         FileParts[ThreadCount - 1].End = FilePtr.getChannel().size();
     }
 
-    private void StartThreads() throws InterruptedException {
-        boolean ThreadsAreWorking;
+    private void StartThreads() throws InterruptedException, IOException {
+        if (Pipelined || !Digests.isEmpty()) {
+            StartPipeline();
+            return;
+        }
+
+        ThreadsList = new Thread[ThreadCount];
+        WorkerError = null;
+        if (Stats != null) Stats.Workers(ThreadCount, 0);
+
         for (int i = 0; i < ThreadCount; i++) {
             ThreadsList[i] = new Thread(() -> {
                 try {
-                    ProcessLeafs();
+                    if (DirectIO)
+                        ProcessDirectLeafs();
+                    else if (MemoryMapped)
+                        ProcessMappedLeafs();
+                    else
+                        ProcessLeafs();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    if (WorkerError == null) WorkerError = e;
                 }
             });
             ThreadsList[i].setName(String.valueOf(i));
             ThreadsList[i].start();
         }
 
+        // returns as soon as the last thread is done.
+        for (int i = 0; i < ThreadCount; i++)
+            ThreadsList[i].join();
 
-        do {
-            Thread.sleep(1000);
-            ThreadsAreWorking = false;
+        if (WorkerError != null) throw WorkerError;
+    }
 
-            for (int i = 0; i < ThreadCount; i++)
-                if (ThreadsList[i].isAlive())
-                    ThreadsAreWorking = true;
+    /**
+     * The readers fill buffers of the pool with the blocks of the file in order and hand them to the hashers
+     * through a ring, the hashers give them back to the pool once the leafs of the block are hashed.
+     * With digests every block also goes through a ring per digest, in the order of the file.
+     */
+    private void StartPipeline() throws InterruptedException, IOException {
+        long FileSize = FilePtr.getChannel().size();
+        long Blocks = (FileSize + DataBlockSize - 1) / DataBlockSize;
+        int Align = DirectIO ? (int) Files.getFileStore(Paths.get(Filename)).getBlockSize() : 1;
+        int BufferCount = ThreadCount * 2 + ReaderCount;
+        RingBuffer<PipeBlock> Free = new RingBuffer<>(BufferCount);
+        RingBuffer<PipeBlock> Full = new RingBuffer<>(BufferCount + ThreadCount);
+        AtomicLong NextBlock = new AtomicLong();
+        AtomicInteger ReadersLeft = new AtomicInteger(ReaderCount);
+        AtomicLong NextDigested = new AtomicLong(); // the next block to hand to the digests.
+        List<RingBuffer<PipeBlock>> Streams = new ArrayList<>();
+
+        for (int i = 0; i < Digests.size(); i++)
+            Streams.add(new RingBuffer<>(BufferCount + 1));
+
+        for (int i = 0; i < BufferCount; i++)
+            Free.Put(new PipeBlock(ByteBuffer.allocateDirect(DataBlockSize + Align * 2).alignedSlice(Align)));
+
+        ThreadsList = new Thread[ReaderCount + ThreadCount + Streams.size()];
+        WorkerError = null;
+        if (Stats != null) {
+            Stats.Workers(ReaderCount + ThreadCount, ReaderCount);
+            Stats.Buffers = BufferCount;
+        }
 
+        for (int i = 0; i < ReaderCount; i++) {
+            int Worker = i;
+            ThreadsList[i] = new Thread(() -> {
+                try {
+                    ReadBlocks(Free, Full, Streams, NextBlock, NextDigested, Blocks, FileSize, Align, Worker);
+                } catch (IOException e) {
+                    if (WorkerError == null) WorkerError = e;
+                    NextBlock.set(Blocks); // the other readers stop as well.
+                } finally {
+                    // the last reader tells every hasher that there are no more blocks.
+                    if (ReadersLeft.decrementAndGet() == 0) {
+                        for (int j = 0; j < ThreadCount; j++)
+                            Full.Put(PipeBlock.EndOfFile);
+                        for (RingBuffer<PipeBlock> Stream : Streams)
+                            Stream.Put(PipeBlock.EndOfFile);
+                    }
+                }
+            });
+        }
+
+        for (int i = ReaderCount; i < ReaderCount + ThreadCount; i++) {
+            int Worker = i;
+            ThreadsList[i] = new Thread(() -> {
+                Tiger TG = new Tiger();
+                byte[] GroupHashes = new byte[HashSize * Group];
+                HashStats.Worker Timer = (Stats == null) ? null : Stats.Workers[Worker];
+                long Time = 0;
+                PipeBlock Block;
+
+                if (Timer != null) Timer.Begin();
+
+                try {
+                    while (true) {
+                        if (Timer != null) {
+                            Timer.SampleQueue(Full.Size());
+                            Time = System.nanoTime();
+                        }
+
+                        if ((Block = Take(Full)) == PipeBlock.EndOfFile) break;
+
+                        if (Timer != null) Time = Timer.Waited(Time);
+                        HashLeafs(TG, GroupHashes, Block.Data, Block.Size, Block.LeafIndex);
+                        if (Timer != null) Timer.Hashed(Time, Block.Size);
 
-        } while (ThreadsAreWorking);
+                        Block.Release(Free);
+                    }
+                } catch (IOException e) {
+                    if (WorkerError == null) WorkerError = e;
+                }
+
+                if (Timer != null) Timer.End(Filename, Worker);
+            });
+        }
+
+        for (int i = 0; i < Streams.size(); i++) {
+            MessageDigest Digest = Digests.get(i);
+            RingBuffer<PipeBlock> Stream = Streams.get(i);
+            ThreadsList[ReaderCount + ThreadCount + i] = new Thread(() -> {
+                PipeBlock Block;
+
+                try {
+                    while ((Block = Take(Stream)) != PipeBlock.EndOfFile) {
+                        Digest.update(Block.Data.slice(0, Block.Size));
+                        Block.Release(Free);
+                    }
+                } catch (IOException e) {
+                    if (WorkerError == null) WorkerError = e;
+                }
+            });
+        }
+
+        for (int i = 0; i < ThreadsList.length; i++) {
+            ThreadsList[i].setName(String.valueOf(i));
+            ThreadsList[i].start();
+        }
+
+        for (Thread Thread : ThreadsList)
+            Thread.join();
+
+        if (WorkerError != null) throw WorkerError;
     }
 
+    private void ReadBlocks(RingBuffer<PipeBlock> Free, RingBuffer<PipeBlock> Full, List<RingBuffer<PipeBlock>> Streams,
+                            AtomicLong NextBlock, AtomicLong NextDigested, long Blocks, long FileSize, int Align,
+                            int Worker) throws IOException {
+        OpenOption[] Options = DirectIO
+                ? new OpenOption[] {StandardOpenOption.READ, ExtendedOpenOption.DIRECT}
+                : new OpenOption[] {StandardOpenOption.READ};
+        HashStats.Worker Timer = (Stats == null) ? null : Stats.Workers[Worker];
+        long Time = 0;
+        long Block;
+
+        if (Timer != null) Timer.Begin();
+
+        try (FileChannel Channel = FileChannel.open(Paths.get(Filename), Options)) {
+            while ((Block = NextBlock.getAndIncrement()) < Blocks) {
+                if (Timer != null) {
+                    Timer.SampleFree(Free.Size());
+                    Time = System.nanoTime();
+                }
+
+                PipeBlock Data = Take(Free);
+                long Position = Block * DataBlockSize;
+
+                if (Timer != null) Time = Timer.Waited(Time);
+
+                Data.Size = (int) Math.min(DataBlockSize, FileSize - Position);
+                Data.LeafIndex = Position / LeafSize;
+
+                // direct reads are whole device blocks, the read of the tail stops short at the end of the file.
+                Data.Data.clear().limit((Data.Size + Align - 1) / Align * Align);
+                while (Data.Data.position() < Data.Size) {
+                    if (Channel.read(Data.Data, Position + Data.Data.position()) <= 0) {
+                        Free.Put(Data);
+                        throw new EOFException("file is shorter then expected");
+                    }
+                }
+
+                if (Timer != null) Time = Timer.Read(Time, Data.Size);
+                Data.Users.set(1 + Streams.size());
+                Put(Full, Data);
+                if (!Streams.isEmpty()) HandToDigests(Data, Block, Free, Streams, NextDigested);
+                if (Timer != null) Timer.Waited(Time);
+            }
+        }
+
+        if (Timer != null) Timer.End(Filename, Worker);
+    }
+
+    /**
+     * A digest has to see the blocks in the order of the file, with more then one reader a block waits until
+     * the one before it is handed on. After an error of another reader the block is given up instead.
+     */
+    private void HandToDigests(PipeBlock Data, long Block, RingBuffer<PipeBlock> Free, List<RingBuffer<PipeBlock>> Streams,
+                               AtomicLong NextDigested) throws InterruptedIOException {
+        for (int Tries = 0; NextDigested.get() != Block && WorkerError == null; Tries++) {
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("hashing was stopped");
+            RingBuffer.Wait(Tries);
+        }
+
+        if (NextDigested.get() != Block) {
+            for (int i = 0; i < Streams.size(); i++)
+                Data.Release(Free);
+            return;
+        }
+
+        for (RingBuffer<PipeBlock> Stream : Streams)
+            Put(Stream, Data);
+        NextDigested.set(Block + 1);
+    }
+
+    /**
+     * Ends the work of a thread that was stopped, by an interrupt or by the error of another thread.
+     */
+    private void Stopping() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("hashing was stopped");
+        if (WorkerError != null) throw new InterruptedIOException("hashing was stopped after an error");
+    }
+
+    /**
+     * Waits for an item of a ring of the pipeline, an interrupt or the error of another thread ends the wait.
+     */
+    private <T> T Take(RingBuffer<T> Ring) throws InterruptedIOException {
+        T Item;
+
+        for (int Tries = 0; (Item = Ring.Poll()) == null; Tries++) {
+            Stopping();
+            RingBuffer.Wait(Tries);
+        }
+        return Item;
+    }
+
+    /**
+     * Waits for room in a ring of the pipeline, an interrupt or the error of another thread ends the wait.
+     */
+    private <T> void Put(RingBuffer<T> Ring, T Item) throws InterruptedIOException {
+        for (int Tries = 0; !Ring.Offer(Item); Tries++) {
+            Stopping();
+            RingBuffer.Wait(Tries);
+        }
+    }
+
+    private String Mode() {
+        if (Pipelined || !Digests.isEmpty()) return DirectIO ? "pipeline-direct" : "pipeline";
+        return DirectIO ? "direct" : MemoryMapped ? "mmap" : "stream";
+    }
+
+    /**
+     * Interrupts every thread and waits for them to end, so none of them touches the tree afterwards.
+     */
     private void StopThreads() {
-        for (int i = 0; i < ThreadCount; i++)
+        boolean Interrupted = false;
+
+        // all of them, in the pipeline that is the readers and the digests as well.
+        for (int i = 0; ThreadsList != null && i < ThreadsList.length; i++)
             if (ThreadsList[i] != null && ThreadsList[i].isAlive())
                 ThreadsList[i].interrupt();
+
+        for (int i = 0; ThreadsList != null && i < ThreadsList.length; i++) {
+            while (ThreadsList[i] != null && ThreadsList[i].isAlive()) {
+                try {
+                    ThreadsList[i].join();
+                } catch (InterruptedException e) {
+                    Interrupted = true;
+                }
+            }
+        }
+
+        if (Interrupted) Thread.currentThread().interrupt();
     }
 
     private void ProcessLeafs() throws IOException {
         FileInputStream ThreadFilePtr = new FileInputStream(Filename);
-        FileBlock ThreadFileBlock = FileParts[Short.valueOf(Thread.currentThread().getName())];
+        int Worker = Short.valueOf(Thread.currentThread().getName());
+        FileBlock ThreadFileBlock = FileParts[Worker];
+        HashStats.Worker Timer = (Stats == null) ? null : Stats.Workers[Worker];
+        long Time = 0;
         Tiger TG = new Tiger();
-        byte[] DataBlock;
-        byte[] Data = new byte[LeafSize + 1];
+        byte[] GroupHashes = new byte[HashSize * Group];
+        byte[] DataBlock = new byte[DataBlockSize]; // reused for every block of the part.
+        ByteBuffer Data = ByteBuffer.wrap(DataBlock);
+        int DataSize;
         long LeafIndex;
-        int BlockLeafs;
-        int i;
 
         ThreadFilePtr.getChannel().position(ThreadFileBlock.Start);
+        if (Timer != null) Timer.Begin();
 
         while (ThreadFilePtr.getChannel().position() < ThreadFileBlock.End) {
+            Stopping();
             LeafIndex = ThreadFilePtr.getChannel().position() / 1024;
+            DataSize = (int) Math.min(DataBlockSize, ThreadFileBlock.End - ThreadFilePtr.getChannel().position());
+            if (Timer != null) Time = System.nanoTime();
+
+            if (ThreadFilePtr.readNBytes(DataBlock, 0, DataSize) < DataSize)
+                throw new EOFException("file is shorter then expected");
+
+            if (Timer != null) Time = Timer.Read(Time, DataSize);
+            HashLeafs(TG, GroupHashes, Data, DataSize, LeafIndex);
+            if (Timer != null) Timer.Hashed(Time, DataSize);
+        }
+
+        if (Timer != null) Timer.End(Filename, Worker);
+        ThreadFilePtr.close();
+    }
 
-            if (ThreadFileBlock.End - ThreadFilePtr.getChannel().position() < DataBlockSize)
-                DataBlock = new byte[(int) (ThreadFileBlock.End - ThreadFilePtr.getChannel().position())];
-            else
-                DataBlock = new byte[DataBlockSize];
+    private void ProcessMappedLeafs() throws IOException {
+        int Worker = Short.valueOf(Thread.currentThread().getName());
+        FileBlock ThreadFileBlock = FileParts[Worker];
+        HashStats.Worker Timer = (Stats == null) ? null : Stats.Workers[Worker];
+        long Time = 0;
+        Tiger TG = new Tiger();
+        byte[] GroupHashes = new byte[HashSize * Group];
+        long Position = ThreadFileBlock.Start;
+        int MapSize;
+
+        if (Timer != null) Timer.Begin();
 
-            ThreadFilePtr.read(DataBlock, 0, DataBlock.length);
+        // files over 2 GB can't be mapped at once, the part is mapped one window at a time.
+        // the pages are read while they are hashed, the read time is only the time to map.
+        try (FileChannel Channel = FileChannel.open(Paths.get(Filename), StandardOpenOption.READ)) {
+            while (Position < ThreadFileBlock.End) {
+                Stopping();
+                MapSize = (int) Math.min(MapBlockSize, ThreadFileBlock.End - Position);
+                if (Timer != null) Time = System.nanoTime();
 
-            BlockLeafs = DataBlock.length / 1024;
+                MappedByteBuffer Map = Channel.map(FileChannel.MapMode.READ_ONLY, Position, MapSize);
 
-            for (i = 0; i < BlockLeafs; i++) {
-                System.arraycopy(DataBlock, i * LeafSize, Data, 1, LeafSize);
+                if (Timer != null) Time = Timer.Read(Time, MapSize);
+                HashLeafs(TG, GroupHashes, Map, MapSize, Position / LeafSize);
+                if (Timer != null) Timer.Hashed(Time, MapSize);
 
-                TG.Initialize();
-                TTH[0][(int) LeafIndex++] = TG.ComputeHash(Data);
+                Position += MapSize;
             }
+        }
 
-            if (i * LeafSize < DataBlock.length) {
-                Data = new byte[DataBlock.length - BlockLeafs * LeafSize + 1];
-                Data[0] = LeafHash;
+        if (Timer != null) Timer.End(Filename, Worker);
+    }
 
-                System.arraycopy(DataBlock, BlockLeafs * LeafSize, Data, 1, (Data.length - 1));
+    private void ProcessDirectLeafs() throws IOException {
+        int Worker = Short.valueOf(Thread.currentThread().getName());
+        FileBlock ThreadFileBlock = FileParts[Worker];
+        HashStats.Worker Timer = (Stats == null) ? null : Stats.Workers[Worker];
+        long Time = 0;
+        Tiger TG = new Tiger();
+        byte[] GroupHashes = new byte[HashSize * Group];
+        Path File = Paths.get(Filename);
+        int Align = (int) Files.getFileStore(File).getBlockSize();
+        ByteBuffer Buffer = ByteBuffer.allocateDirect(DataBlockSize + Align * 2).alignedSlice(Align);
+        long Position = ThreadFileBlock.Start;
+
+        // direct reads have to start on a block of the device and be whole blocks long, every read starts
+        // at the block that holds the first wanted byte and the bytes in front of it are skipped.
+        if (Timer != null) Timer.Begin();
+
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ, ExtendedOpenOption.DIRECT)) {
+            while (Position < ThreadFileBlock.End) {
+                Stopping();
+                int Size = (int) Math.min(DataBlockSize, ThreadFileBlock.End - Position);
+                long ReadPosition = Position - Position % Align;
+                int Skip = (int) (Position - ReadPosition);
+                if (Timer != null) Time = System.nanoTime();
+
+                // the read of the tail of the file stops short at the end of the file.
+                Buffer.clear().limit((Skip + Size + Align - 1) / Align * Align);
+                while (Buffer.position() < Skip + Size)
+                    if (Channel.read(Buffer, ReadPosition + Buffer.position()) <= 0)
+                        throw new EOFException("file is shorter then expected");
+
+                if (Timer != null) Time = Timer.Read(Time, Size);
+                HashLeafs(TG, GroupHashes, Buffer.slice(Skip, Size), Size, Position / LeafSize);
+                if (Timer != null) Timer.Hashed(Time, Size);
+
+                Position += Size;
+            }
+        }
+
+        if (Timer != null) Timer.End(Filename, Worker);
+    }
 
-                TG.Initialize();
-                TTH[0][(int) LeafIndex++] = TG.ComputeHash(Data);
+    private void HashLeafs(Tiger TG, byte[] GroupHashes, ByteBuffer Data, int DataSize, long LeafIndex) {
+        int BlockLeafs = DataSize / LeafSize;
+        int i;
 
-                Data = new byte[LeafSize + 1];
-                Data[0] = LeafHash;
+        // the leafs are hashed straight from the data and stored a group at a time, zero leafs are only scanned.
+        for (i = 0; i + Group <= BlockLeafs; i += Group) {
+            if (SkipZeros && ZeroHashes.IsZero(Data, i * LeafSize, LeafSize * Group)) {
+                TTH.Put(0, LeafIndex, ZeroHashes.Hashes(0), 0, Group);
+            }
+            else {
+                for (int k = 0; k < Group; k++)
+                    TG.ComputeHash(LeafHash, Data, (i + k) * LeafSize, LeafSize, GroupHashes, k * HashSize);
+                TTH.Put(0, LeafIndex, GroupHashes, 0, Group);
             }
+            LeafIndex += Group;
+        }
+
+        // the leafs that don't fill a group.
+        for (; i < BlockLeafs; i++) {
+            TG.ComputeHash(LeafHash, Data, i * LeafSize, LeafSize, GroupHashes, 0);
+            TTH.Put(0, LeafIndex++, GroupHashes, 0, 1);
+        }
+
+        if (i * LeafSize < DataSize) {
+            TG.ComputeHash(LeafHash, Data, i * LeafSize, DataSize - i * LeafSize, GroupHashes, 0);
+            TTH.Put(0, LeafIndex, GroupHashes, 0, 1);
         }
     }
 
     private void CompressTree() {
-        int InternalLeafCount;
-        int Level = 0, i, LeafIndex;
+        Tiger TG = new Tiger();
+        byte[] Data = new byte[HashSize * 2 * Group];
+        byte[] GroupHashes = new byte[HashSize * Group];
+        long InternalLeafCount;
+        long i, LeafIndex;
+        int Level = 0;
 
         while (Level + 1 < LevelCount) {
             LeafIndex = 0;
             InternalLeafCount = (LeafCount / 2) + (LeafCount % 2);
-            TTH[Level + 1] = new byte[InternalLeafCount][];
 
-            for (i = 1; i < LeafCount; i += 2)
-                ProcessInternalLeaf(Level + 1, LeafIndex++, TTH[Level][i - 1], TTH[Level][i]);
+            // the pairs are read and stored a group at a time, pairs of zero subtrees are known.
+            for (i = 1; i + (Group - 1) * 2 < LeafCount; i += Group * 2) {
+                TTH.Get(Level, i - 1, Data, 0, Group * 2);
 
-            if (LeafIndex < InternalLeafCount)
-                TTH[Level + 1][LeafIndex] = TTH[Level][LeafCount - 1];
+                if (SkipZeros && ZeroHashes.Matches(Data, 0, Group * 2, Level)) {
+                    TTH.Put(Level + 1, LeafIndex, ZeroHashes.Hashes(Level + 1), 0, Group);
+                }
+                else {
+                    for (int k = 0; k < Group; k++)
+                        TG.ComputeHash(InternalHash, Data, k * HashSize * 2, HashSize * 2, GroupHashes, k * HashSize);
+                    TTH.Put(Level + 1, LeafIndex, GroupHashes, 0, Group);
+                }
+                LeafIndex += Group;
+            }
+
+            for (; i < LeafCount; i += 2) {
+                TTH.Get(Level, i - 1, Data, 0, 2);
+                TG.ComputeHash(InternalHash, Data, 0, HashSize * 2, GroupHashes, 0);
+                TTH.Put(Level + 1, LeafIndex++, GroupHashes, 0, 1);
+            }
+
+            if (LeafIndex < InternalLeafCount) {
+                TTH.Get(Level, LeafCount - 1, Data, 0, 1);
+                TTH.Put(Level + 1, LeafIndex, Data, 0, 1);
+            }
 
             Level++;
             LeafCount = InternalLeafCount;
         }
     }
 
-    private void ProcessInternalLeaf(int Level, int Index, byte[] LeafA, byte[] LeafB) {
-        Tiger TG = new Tiger();
-        byte[] Data = new byte[LeafA.length + LeafB.length + 1];
+    /**
+     * A pooled buffer with the block of the file it holds.
+     */
+    private static class PipeBlock {
+        static final PipeBlock EndOfFile = new PipeBlock(ByteBuffer.allocate(0));
 
-        Data[0] = InternalHash;
+        final ByteBuffer Data;
+        final AtomicInteger Users = new AtomicInteger(); // the hasher and the digests that still read it.
+        int Size;
+        long LeafIndex;
 
-        System.arraycopy(LeafA, 0, Data, 1, LeafA.length);
-        System.arraycopy(LeafB, 0, Data, LeafA.length + 1, LeafA.length);
+        PipeBlock(ByteBuffer Data) {
+            this.Data = Data;
+        }
 
-        TG.Initialize();
-        TTH[Level][Index] = TG.ComputeHash(Data);
+        /**
+         * The last user gives the buffer back to the pool.
+         */
+        void Release(RingBuffer<PipeBlock> Free) {
+            if (Users.decrementAndGet() == 0) Free.Put(this);
+        }
     }
 
     private class FileBlock {
@@ -242,27 +730,98 @@ public class ThexThreaded {
 
     public static void main(String[] args) {
         ThexThreaded thex = new ThexThreaded();
+        String export = null;
+        String metrics = null;
+        String digests = null;
+        boolean thexFormat = false;
+        long blockSize = 64 * 1024;
         byte[] result;
         Instant start;
         Instant end;
         if (!(args.length < 1) && !args[0].isEmpty()) {
-            if (args.length > 1 && args[1].matches("[0-9]")) {
-                thex.ThreadCount = Integer.valueOf(args[1]);
+            if (args.length > 1 && args[1].matches("[0-9]+") && Integer.parseInt(args[1]) > 0) {
+                thex.ThreadCount = Integer.parseInt(args[1]);
+            }
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--mmap"))
+                    thex.MemoryMapped = true;
+                else if (args[i].equals("--direct"))
+                    thex.DirectIO = true;
+                else if (args[i].equals("--zeros"))
+                    thex.SkipZeros = true;
+                else if (args[i].equals("--pipeline"))
+                    thex.Pipelined = true;
+                else if (args[i].equals("--store") && i + 1 < args.length && args[i + 1].matches("heap|direct|mapped"))
+                    thex.Storage = TreeStore.Backing.valueOf(Character.toUpperCase(args[++i].charAt(0)) + args[i].substring(1));
+                else if (args[i].equals("--readers") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                    thex.ReaderCount = Math.max(1, Integer.parseInt(args[++i]));
+                else if (args[i].equals("--thex"))
+                    thexFormat = true;
+                else if (args[i].equals("--metrics") && i + 1 < args.length)
+                    metrics = args[++i];
+                else if (args[i].equals("--digest") && i + 1 < args.length)
+                    digests = args[++i];
+                else if (args[i].equals("--export") && i + 1 < args.length)
+                    export = args[++i];
+                else if (args[i].equals("--block") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                    blockSize = Long.parseLong(args[++i]);
+            }
+            if (export != null && (blockSize < 1024 || Long.bitCount(blockSize) != 1)) {
+                System.out.println("The block size has to be a power of two of at least 1024");
+                return;
+            }
+            if (digests != null) {
+                try {
+                    for (String name : digests.split(","))
+                        thex.Digests.add(name.equalsIgnoreCase("Tiger") ? new TigerDigest() : MessageDigest.getInstance(name));
+                } catch (NoSuchAlgorithmException e) {
+                    System.out.println("Unknown digest: " + e.getMessage());
+                    return;
+                }
+                thex.Pipelined = true;
             }
             File file = new File(args[0]);
             if (file.exists()) {
                 try {
-                    System.out.println("Running with " + String.valueOf(thex.ThreadCount) + " threads");
+                    if (metrics != null) thex.Metrics = new HashMetrics(Paths.get(metrics));
+                    System.out.println("Running with " + String.valueOf(thex.ThreadCount) + " threads" +
+                            (thex.Pipelined ? " behind " + thex.ReaderCount + " reader" + (thex.ReaderCount > 1 ? "s" : "") : "") +
+                            (thex.DirectIO ? " with direct reads" : thex.MemoryMapped ? " on a memory mapping" : ""));
                     System.out.println("Start hashing file: " + file.getName());
 
                     start = Instant.now();
                     result = thex.GetTTH_Value(args[0]);
                     end = Instant.now();
 
+                    if (thex.Metrics != null) thex.Metrics.close();
+
+                    // the error was written by GetTTH, there is no tree to print or export.
+                    if (result == null) {
+                        System.err.println("Something went wrong trying to hash file: " + file.getName());
+                        return;
+                    }
+
                     System.out.println("Finished hashing file: " + file.getName());
                     System.out.println("TTH: " + Base32.encode(result));
+                    for (int i = 0; i < thex.Digests.size(); i++)
+                        System.out.println(thex.Digests.get(i).getAlgorithm() + ": " + Base32.encodeHex(thex.GetDigestValues()[i]));
                     System.out.println("TimeTaken: " + Duration.between(start, end));
 
+                    if (export != null) {
+                        ThexLevels levels = thex.GetLevels(blockSize);
+
+                        if (thexFormat) {
+                            try (OutputStream output = Files.newOutputStream(Paths.get(export))) {
+                                levels.WriteThex(output);
+                            }
+                        }
+                        else {
+                            levels.Write(Paths.get(export));
+                        }
+                        System.out.println("Exported " + levels.Count() + " hashes of " + levels.BlockSize() +
+                                " bytes to: " + export);
+                    }
+
                 } catch (IOException e) {
                     System.err.println("Something went wrong trying to hash file: " + file.getName());
                     e.printStackTrace();
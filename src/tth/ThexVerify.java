@@ -0,0 +1,249 @@
+package tth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Java Tiger Tree Hash Verify
+ *
+ * Checks a file against a stored level of its tree (see ThexLevels) and finds the blocks that don't match.
+ * A level file holds no root and can be changed together with the file, so the level is first checked to
+ * reduce to the trusted root, which has to come from somewhere else. After that every block of the file is
+ * hashed to its subtree root and compared with the hash of the level. The blocks are split across the workers
+ * of a fork/join pool the same way ThexForkJoin splits a file, each worker reads its blocks with
+ * positional reads into its own buffer, so verifying runs as fast as hashing.
+ *
+ * The program takes these arguments,
+ * File to verify.
+ * Compact level file of the file.
+ * --root BASE32, trusted root the level has to reduce to.
+ * --first (optional), stop at the first block that doesn't match.
+ * --threads N (optional), number of threads, default the number of processors.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexVerify {
+
+    private static final int HashSize = SubtreeHasher.HashSize;
+    private static final int TaskBytes = 16 * 1024 * 1024; // bytes of blocks verified by one task.
+
+    private final ForkJoinPool Pool;
+
+    // every worker thread reuses its own buffer and hasher.
+    private static final ThreadLocal<Worker> Workers = ThreadLocal.withInitial(Worker::new);
+
+    /**
+     * A run of bytes of the file that doesn't match the stored level.
+     */
+    public static final class Range {
+        public final long Start;
+        public final long End; // exclusive
+
+        public Range(long Start, long End) {
+            this.Start = Start;
+            this.End = End;
+        }
+
+        @Override
+        public String toString() {
+            return Start + "-" + End;
+        }
+    }
+
+    public ThexVerify() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ThexVerify(ForkJoinPool Pool) {
+        this.Pool = Pool;
+    }
+
+    /**
+     * Verifies the file against the level.
+     *
+     * @param Root trusted root the level has to reduce to
+     * @param StopEarly stop at the first block that doesn't match, the result holds at least that block
+     * @return the byte ranges that don't match sorted by offset, adjacent blocks are joined, empty if the file is intact
+     * @throws IOException when the level doesn't reduce to the root, or the file has a different size
+     */
+    public List<Range> Verify(String Filename, ThexLevels Levels, byte[] Root, boolean StopEarly) throws IOException {
+        if (Root == null || Root.length != HashSize) throw new IllegalArgumentException("Root");
+        if (!Arrays.equals(Levels.Root(), Root))
+            throw new IOException("the stored level doesn't reduce to the trusted root");
+
+        try (FileChannel Channel = FileChannel.open(Paths.get(Filename), StandardOpenOption.READ)) {
+            if (Channel.size() != Levels.FileSize())
+                throw new IOException("file size is " + Channel.size() + " but the level is of " + Levels.FileSize());
+
+            Job Job = new Job(Channel, Levels, StopEarly);
+            int BlocksPerTask = (int) Math.max(1, TaskBytes / Levels.BlockSize());
+
+            Pool.submit(new BlockTask(Job, 0, Levels.Count(), BlocksPerTask)).get();
+
+            return Job.Ranges();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while verifying " + Filename);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new IOException("error while trying to verify: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * State shared by all tasks of one file.
+     */
+    private static class Job {
+        final FileChannel Channel;
+        final ThexLevels Levels;
+        final boolean StopEarly;
+        final boolean[] Bad;
+        volatile boolean Stopped;
+
+        Job(FileChannel Channel, ThexLevels Levels, boolean StopEarly) {
+            this.Channel = Channel;
+            this.Levels = Levels;
+            this.StopEarly = StopEarly;
+            this.Bad = new boolean[Levels.Count()];
+        }
+
+        void Mismatch(int Block) {
+            // every task writes its own blocks, the join of the tasks makes the writes visible.
+            Bad[Block] = true;
+            if (StopEarly) Stopped = true;
+        }
+
+        List<Range> Ranges() {
+            List<Range> Ranges = new ArrayList<>();
+            long BlockSize = Levels.BlockSize();
+
+            for (int i = 0; i < Bad.length; i++) {
+                if (!Bad[i]) continue;
+
+                int First = i;
+                while (i + 1 < Bad.length && Bad[i + 1]) i++;
+                Ranges.add(new Range(First * BlockSize, Math.min((i + 1) * BlockSize, Levels.FileSize())));
+            }
+
+            return Ranges;
+        }
+    }
+
+    private static class Worker {
+        final BlockHasher Hasher = new BlockHasher();
+        final byte[] Root = new byte[HashSize];
+    }
+
+    @SuppressWarnings("serial")
+    private static class BlockTask extends RecursiveAction {
+        private final Job Job;
+        private final int Start;
+        private final int Count;
+        private final int BlocksPerTask;
+
+        BlockTask(Job Job, int Start, int Count, int BlocksPerTask) {
+            this.Job = Job;
+            this.Start = Start;
+            this.Count = Count;
+            this.BlocksPerTask = BlocksPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (Count > BlocksPerTask) {
+                int Half = Count / 2;
+                invokeAll(new BlockTask(Job, Start, Half, BlocksPerTask),
+                        new BlockTask(Job, Start + Half, Count - Half, BlocksPerTask));
+                return;
+            }
+
+            try {
+                for (int i = Start; i < Start + Count && !Job.Stopped; i++)
+                    if (!VerifyBlock(i))
+                        Job.Mismatch(i);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private boolean VerifyBlock(int Block) throws IOException {
+            Worker Worker = Workers.get();
+            long BlockSize = Job.Levels.BlockSize();
+            long Position = Block * BlockSize;
+
+            Worker.Hasher.HashBlock(Job.Channel, Position, Math.min(BlockSize, Job.Levels.FileSize() - Position),
+                    Worker.Root, 0);
+            return Job.Levels.Matches(Block, Worker.Root, 0);
+        }
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean first = false;
+        byte[] root = null;
+        List<String> files = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--first"))
+                first = true;
+            else if (args[i].equals("--root") && i + 1 < args.length)
+                root = Base32.decode(args[++i]);
+            else if (args[i].equals("--threads") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (!args[i].isEmpty())
+                files.add(args[i]);
+        }
+
+        if (files.size() < 2) {
+            System.out.println("No file and level file given");
+            return;
+        }
+
+        if (root == null || root.length != HashSize) {
+            System.out.println("No trusted root given, --root BASE32 is needed");
+            return;
+        }
+
+        File file = new File(files.get(0));
+        if (!file.exists()) {
+            System.out.println("The given file does not exist");
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ThexLevels levels = ThexLevels.Read(Paths.get(files.get(1)));
+            System.out.println("Running with " + threads + " threads");
+            System.out.println("Start verifying file: " + file.getName() + " in blocks of " + levels.BlockSize() + " bytes");
+
+            Instant start = Instant.now();
+            List<Range> bad = new ThexVerify(pool).Verify(files.get(0), levels, root, first);
+            Instant end = Instant.now();
+
+            for (Range range : bad)
+                System.out.println("Mismatch: " + range);
+            System.out.println(bad.isEmpty() ? "Verified: " + file.getName() : "Corrupt: " + file.getName());
+            System.out.println("TimeTaken: " + Duration.between(start, end));
+
+        } catch (IOException e) {
+            System.err.println("Something went wrong trying to verify file: " + file.getName());
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
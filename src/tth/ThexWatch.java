@@ -0,0 +1,506 @@
+package tth;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Tiger Tree Hash Watch
+ *
+ * Keeps the roots of the files below a set of directories up to date while they change, instead of hashing
+ * all of them again on a schedule. Every directory is registered with a WatchService, directories that are
+ * created later as well. An event only marks its file as changed: a file is hashed once it had no events for
+ * the quiet time and its size and modification time stayed the same, so a file that is being written is
+ * hashed once after the last write and not for every write.
+ *
+ * A file is waiting, ready or being hashed at most once. More events for a waiting file move its time on,
+ * and a file that changes while it is hashed is hashed once more afterwards. The ready files wait in order
+ * and a thread of the pool takes the next one as soon as it is done with the last, so a burst of thousands
+ * of events costs a map entry per file and no duplicate work. When the watch service lost events the
+ * directory is walked again.
+ *
+ * With a HashCache files that are unchanged since they were cached aren't read, every hashed file is added
+ * to it and deleted files are removed from it.
+ *
+ * Results are written as they are known as: path TAB size TAB base32 root, a file that was deleted as:
+ * path TAB - TAB -.
+ *
+ * The program takes these arguments,
+ * Directories to watch, recursively.
+ * --threads N (optional), files hashed at the same time, default 2.
+ * --quiet MILLISECONDS (optional), time a file has to be left alone before it is hashed, default 2000.
+ * --scan (optional), hash every file that is already there once at the start.
+ * --cache FILE (optional), hash cache to answer unchanged files from and to keep up to date.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class ThexWatch implements Closeable {
+
+    private static final long PollNanos = TimeUnit.MILLISECONDS.toNanos(100); // longest wait for events.
+
+    /**
+     * Receives the results, called from the hashing threads.
+     */
+    public interface ResultListener {
+        void Hashed(Path File, long Size, byte[] Root);
+
+        void Removed(Path File);
+
+        void Failed(Path File, Exception Error);
+    }
+
+    /**
+     * A file waiting for its writes to settle.
+     */
+    private static final class Change {
+        long Deadline;
+        long Size = -1; // as seen at the last deadline, -1 when the file wasn't there.
+        long ModifiedTime = -1;
+    }
+
+    private final WatchService Watcher;
+    private final ExecutorService Pool;
+    private final ThexPlanner Planner;
+    private final ResultListener Listener;
+    private final int Threads;
+    private final long Quiet;
+    private HashCache Cache;
+    private volatile boolean Closed;
+
+    // only used by the thread in Run().
+    private final Map<WatchKey, Path> Directories = new HashMap<>();
+    private final LinkedHashMap<Path, Change> Changed = new LinkedHashMap<>(); // in the order of their deadline.
+
+    // shared with the pool under the lock.
+    private final Object Lock = new Object();
+    private final Set<Path> Ready = new LinkedHashSet<>(); // settled, waiting for a thread of the pool.
+    private final Map<Path, Boolean> Running = new HashMap<>(); // true when the file changed again meanwhile.
+    private final Queue<Path> Stale = new ConcurrentLinkedQueue<>(); // to be marked as changed by Run().
+
+    private final Set<Path> Known = ConcurrentHashMap.newKeySet(); // files a root was given for.
+
+    /**
+     * @param Threads files hashed at the same time
+     * @param QuietMillis time a file has to be left alone before it is hashed
+     */
+    public ThexWatch(int Threads, long QuietMillis, ResultListener Listener) throws IOException {
+        this.Watcher = FileSystems.getDefault().newWatchService();
+        this.Pool = Executors.newFixedThreadPool(Threads, Runnable -> {
+            Thread Thread = new Thread(Runnable);
+            Thread.setName("thex-watch-hash");
+            Thread.setDaemon(true);
+            return Thread;
+        });
+        this.Planner = new ThexPlanner(Math.max(1, Runtime.getRuntime().availableProcessors() / Threads));
+        this.Listener = Listener;
+        this.Threads = Threads;
+        this.Quiet = TimeUnit.MILLISECONDS.toNanos(QuietMillis);
+    }
+
+    /**
+     * Answers unchanged files from the cache and keeps it up to date with every change.
+     */
+    public void SetCache(HashCache Cache) {
+        this.Cache = Cache;
+    }
+
+    /**
+     * Watches the directory and every directory below it, has to be called before Run().
+     *
+     * @param Scan hash every file that is there already as well
+     */
+    public void Watch(Path Directory, boolean Scan) throws IOException {
+        Register(Directory, Scan);
+    }
+
+    /**
+     * Handles the events until the watch is closed.
+     */
+    public void Run() throws IOException {
+        try {
+            while (!Closed) {
+                WatchKey Key = Watcher.poll(NextWait(), TimeUnit.NANOSECONDS);
+
+                // a burst is taken in at once, so its events are merged before anything is hashed.
+                while (Key != null) {
+                    Events(Key);
+                    Key = Watcher.poll();
+                }
+
+                Collect();
+                Settle(System.nanoTime());
+                Submit();
+            }
+        } catch (ClosedWatchServiceException e) {
+            if (!Closed) throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Closed = true;
+        Watcher.close();
+        Pool.shutdown();
+    }
+
+    /**
+     * @return time until the next file is due, at most PollNanos so stale files are picked up
+     */
+    private long NextWait() {
+        if (Changed.isEmpty()) return PollNanos;
+
+        long Due = Changed.values().iterator().next().Deadline - System.nanoTime();
+        return Math.max(1, Math.min(PollNanos, Due));
+    }
+
+    private void Register(Path Directory, boolean Scan) throws IOException {
+        Files.walkFileTree(Directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path Child, BasicFileAttributes Attributes) {
+                try {
+                    WatchKey Key = Child.register(Watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    Directories.put(Key, Child);
+                } catch (IOException e) {
+                    Listener.Failed(Child, e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path Child, BasicFileAttributes Attributes) {
+                if (Scan && Attributes.isRegularFile()) Touch(Child);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path Child, IOException Error) {
+                Listener.Failed(Child, Error);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void Events(WatchKey Key) throws IOException {
+        Path Directory = Directories.get(Key);
+
+        for (WatchEvent<?> Event : Key.pollEvents()) {
+            if (Directory == null) break;
+
+            // events were lost, everything below the directory is looked at again.
+            if (Event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                Register(Directory, true);
+                continue;
+            }
+
+            Path Child = Directory.resolve((Path) Event.context());
+
+            // files can be created in a new directory before it is registered, the walk finds those.
+            if (Event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(Child, LinkOption.NOFOLLOW_LINKS))
+                Register(Child, true);
+            else
+                Touch(Child);
+        }
+
+        // the directory is gone.
+        if (!Key.reset()) Directories.remove(Key);
+    }
+
+    /**
+     * Marks the file as changed now, an earlier change of it is moved on.
+     */
+    private void Touch(Path File) {
+        Change Change = Changed.remove(File);
+        if (Change == null) Change = new Change();
+
+        Change.Deadline = System.nanoTime() + Quiet;
+        Changed.put(File, Change);
+        synchronized (Lock) {
+            Ready.remove(File);
+        }
+    }
+
+    /**
+     * Moves the files that are due and didn't change since the last look to the ready files, files that did
+     * are looked at again after another quiet time.
+     */
+    private void Settle(long Now) {
+        List<Map.Entry<Path, Change>> Again = new ArrayList<>();
+        List<Path> Settled = new ArrayList<>();
+        Iterator<Map.Entry<Path, Change>> Due = Changed.entrySet().iterator();
+
+        while (Due.hasNext()) {
+            Map.Entry<Path, Change> Entry = Due.next();
+            Change Change = Entry.getValue();
+            if (Change.Deadline > Now) break;
+
+            Due.remove();
+
+            long Size = -1, ModifiedTime = -1;
+            try {
+                BasicFileAttributes Attributes = Files.readAttributes(Entry.getKey(), BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                if (!Attributes.isRegularFile()) continue;
+
+                Size = Attributes.size();
+                ModifiedTime = Attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                // gone, handled as a deletion by the hash.
+            }
+
+            // a file last written a quiet time ago is done, otherwise it has to stay the same for one.
+            if ((Size == Change.Size && ModifiedTime == Change.ModifiedTime)
+                    || System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(ModifiedTime) >= TimeUnit.NANOSECONDS.toMillis(Quiet)) {
+                Settled.add(Entry.getKey());
+            }
+            else {
+                Change.Size = Size;
+                Change.ModifiedTime = ModifiedTime;
+                Change.Deadline = Now + Quiet;
+                Again.add(Entry);
+            }
+        }
+
+        for (Map.Entry<Path, Change> Entry : Again)
+            Changed.put(Entry.getKey(), Entry.getValue());
+
+        synchronized (Lock) {
+            Ready.addAll(Settled);
+        }
+    }
+
+    /**
+     * Starts a thread of the pool on a ready file for every thread that is idle.
+     */
+    private void Submit() {
+        synchronized (Lock) {
+            Path File;
+            while (Running.size() < Threads && (File = Next()) != null) {
+                Path First = File;
+                Pool.execute(() -> Work(First));
+            }
+        }
+    }
+
+    /**
+     * Takes the next ready file, a file that is being hashed already is hashed again once that is done.
+     * Called under the lock.
+     *
+     * @return the file, or null when there is none
+     */
+    private Path Next() {
+        Iterator<Path> Next = Ready.iterator();
+
+        while (Next.hasNext()) {
+            Path File = Next.next();
+            Next.remove();
+
+            if (Running.containsKey(File)) {
+                Running.put(File, true);
+                continue;
+            }
+
+            Running.put(File, false);
+            return File;
+        }
+
+        return null;
+    }
+
+    /**
+     * Hashes ready files on a thread of the pool until there are none left.
+     */
+    private void Work(Path File) {
+        while (File != null) {
+            // the file gives its place back whatever happened, a place that is never given back is a thread
+            // less for good.
+            try {
+                Hash(File);
+            } catch (RuntimeException e) {
+                try {
+                    Listener.Failed(File, e);
+                } catch (RuntimeException Unreported) {
+                    // the listener can't take the error either, nothing left to report it to.
+                }
+            } finally {
+                synchronized (Lock) {
+                    if (Running.remove(File)) Stale.add(File);
+                }
+            }
+
+            synchronized (Lock) {
+                File = Closed ? null : Next();
+            }
+        }
+    }
+
+    private void Collect() {
+        Path File;
+
+        while ((File = Stale.poll()) != null)
+            Touch(File);
+    }
+
+    private void Hash(Path File) {
+        try {
+            BasicFileAttributes Attributes;
+            try {
+                Attributes = Files.readAttributes(File, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                Removed(File);
+                return;
+            }
+            if (!Attributes.isRegularFile()) return;
+
+            byte[] Root = (Cache == null) ? null : Cache.Lookup(File, Attributes);
+            if (Root == null) {
+                Root = Planner.GetTTH(File.toString());
+
+                // a file that changed while it was hashed is hashed again, this root may be of neither version.
+                BasicFileAttributes After = Files.readAttributes(File, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (After.size() != Attributes.size() || !After.lastModifiedTime().equals(Attributes.lastModifiedTime())) {
+                    Stale.add(File);
+                    return;
+                }
+
+                if (Cache != null) Cache.Put(File, Attributes, Root);
+            }
+
+            Known.add(File);
+            Listener.Hashed(File, Attributes.size(), Root);
+        } catch (NoSuchFileException e) {
+            Removed(File);
+        } catch (IOException e) {
+            Listener.Failed(File, e);
+        }
+    }
+
+    /**
+     * Only files that had a root, in this run or in the cache, are reported as removed.
+     */
+    private void Removed(Path File) {
+        boolean Had = Known.remove(File);
+
+        try {
+            if (Cache != null && Cache.Contains(File)) {
+                Cache.Remove(File);
+                Had = true;
+            }
+        } catch (IOException e) {
+            Listener.Failed(File, e);
+        }
+
+        if (Had) Listener.Removed(File);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = 2;
+        long quiet = 2000;
+        boolean scan = false;
+        String cacheFile = null;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--quiet") && i + 1 < args.length && args[i + 1].matches("[0-9]+"))
+                quiet = Long.parseLong(args[++i]);
+            else if (args[i].equals("--scan"))
+                scan = true;
+            else if (args[i].equals("--cache") && i + 1 < args.length)
+                cacheFile = args[++i];
+            else if (!args[i].isEmpty())
+                paths.add(args[i]);
+        }
+
+        if (paths.isEmpty()) {
+            System.out.println("No directories given");
+            return;
+        }
+
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        HashCache cache = (cacheFile == null) ? null : HashCache.Open(Paths.get(cacheFile));
+
+        ThexWatch watch = new ThexWatch(threads, quiet, new ResultListener() {
+            @Override
+            public void Hashed(Path File, long Size, byte[] Root) {
+                Write(File + "\t" + Size + "\t" + Base32.encode(Root));
+            }
+
+            @Override
+            public void Removed(Path File) {
+                Write(File + "\t-\t-");
+            }
+
+            @Override
+            public void Failed(Path File, Exception Error) {
+                System.err.println("error while trying to get TTH for file: " + File + ". (" + Error.getMessage() + ")");
+            }
+
+            // every line is flushed, whoever reads the output sees a change as soon as it is hashed.
+            private void Write(String Line) {
+                synchronized (output) {
+                    try {
+                        output.write(Line);
+                        output.write('\n');
+                        output.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        });
+        watch.SetCache(cache);
+
+        for (String path : paths)
+            watch.Watch(Paths.get(path), scan);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                watch.close();
+                if (cache != null) cache.close();
+            } catch (IOException e) {
+                System.err.println("error while closing: " + e.getMessage());
+            }
+        }));
+
+        System.err.println("Watching " + paths.size() + " path" + (paths.size() > 1 ? "s" : "") + " with " + threads +
+                " threads");
+        watch.Run();
+    }
+}
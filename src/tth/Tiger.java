@@ -12,14 +12,23 @@ package tth;
  */
 
 import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 public class Tiger {
 
+    static final int HashSize = 24;
+
+    // reads and writes little endian longs at any offset, without assembling them byte by byte.
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUFFER_LONG_LE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
     private long a;
     private long b;
     private long c;
 
-    private long[] block;
     private byte[] buf;
 
     private long lLen;
@@ -130,48 +139,172 @@ public class Tiger {
             -3650491565905270770L, -4529053496248414107L, -4021111997381021802L, -4350414089199835873L
     };
 
-    private byte[] HashValue;
-
     public Tiger() {
         this.buf = new byte[64];
-        this.block = new long[8];
         this.Initialize();
     }
 
-    private void Compress() {
-        long aa = this.a;
-        long bb = this.b;
-        long cc = this.c;
-        long[] block = this.block;
-        this.RoundABC(block[0], 5);
-        this.RoundBCA(block[1], 5);
-        this.RoundCAB(block[2], 5);
-        this.RoundABC(block[3], 5);
-        this.RoundBCA(block[4], 5);
-        this.RoundCAB(block[5], 5);
-        this.RoundABC(block[6], 5);
-        this.RoundBCA(block[7], 5);
-        this.Schedule(block);
-        this.RoundCAB(block[0], 7);
-        this.RoundABC(block[1], 7);
-        this.RoundBCA(block[2], 7);
-        this.RoundCAB(block[3], 7);
-        this.RoundABC(block[4], 7);
-        this.RoundBCA(block[5], 7);
-        this.RoundCAB(block[6], 7);
-        this.RoundABC(block[7], 7);
-        this.Schedule(block);
-        this.RoundBCA(block[0], 9);
-        this.RoundCAB(block[1], 9);
-        this.RoundABC(block[2], 9);
-        this.RoundBCA(block[3], 9);
-        this.RoundCAB(block[4], 9);
-        this.RoundABC(block[5], 9);
-        this.RoundBCA(block[6], 9);
-        this.RoundCAB(block[7], 9);
-        this.a ^= aa;
-        this.b -= bb;
-        this.c += cc;
+    /**
+     * Compresses one 64 byte block, the chaining values are kept in locals through all 24 rounds.
+     */
+    private void Compress(long x0, long x1, long x2, long x3, long x4, long x5, long x6, long x7) {
+        long a = this.a;
+        long b = this.b;
+        long c = this.c;
+        long aa = a;
+        long bb = b;
+        long cc = c;
+
+        c ^= x0;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 5;
+        a ^= x1;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 5;
+        b ^= x2;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 5;
+        c ^= x3;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 5;
+        a ^= x4;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 5;
+        b ^= x5;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 5;
+        c ^= x6;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 5;
+        a ^= x7;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 5;
+
+        x0 -= x7 ^ 0xA5A5A5A5A5A5A5A5L;
+        x1 ^= x0;
+        x2 += x1;
+        x3 -= x2 ^ (~x1 << 19);
+        x4 ^= x3;
+        x5 += x4;
+        x6 -= x5 ^ (~x4 >>> 23);
+        x7 ^= x6;
+        x0 += x7;
+        x1 -= x0 ^ (~x7 << 19);
+        x2 ^= x1;
+        x3 += x2;
+        x4 -= x3 ^ (~x2 >>> 23);
+        x5 ^= x4;
+        x6 += x5;
+        x7 -= x6 ^ 0x0123456789ABCDEFL;
+
+        b ^= x0;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 7;
+        c ^= x1;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 7;
+        a ^= x2;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 7;
+        b ^= x3;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 7;
+        c ^= x4;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 7;
+        a ^= x5;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 7;
+        b ^= x6;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 7;
+        c ^= x7;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 7;
+
+        x0 -= x7 ^ 0xA5A5A5A5A5A5A5A5L;
+        x1 ^= x0;
+        x2 += x1;
+        x3 -= x2 ^ (~x1 << 19);
+        x4 ^= x3;
+        x5 += x4;
+        x6 -= x5 ^ (~x4 >>> 23);
+        x7 ^= x6;
+        x0 += x7;
+        x1 -= x0 ^ (~x7 << 19);
+        x2 ^= x1;
+        x3 += x2;
+        x4 -= x3 ^ (~x2 >>> 23);
+        x5 ^= x4;
+        x6 += x5;
+        x7 -= x6 ^ 0x0123456789ABCDEFL;
+
+        a ^= x0;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 9;
+        b ^= x1;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 9;
+        c ^= x2;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 9;
+        a ^= x3;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 9;
+        b ^= x4;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 9;
+        c ^= x5;
+        a -= T[(int) c & 255] ^ T[((int) (c >>> 16) & 255) + 256] ^ T[((int) (c >>> 32) & 255) + 512] ^ T[((int) (c >>> 48) & 255) + 768];
+        b += T[((int) (c >>> 8) & 255) + 768] ^ T[((int) (c >>> 24) & 255) + 512] ^ T[((int) (c >>> 40) & 255) + 256] ^ T[(int) (c >>> 56) & 255];
+        b *= 9;
+        a ^= x6;
+        b -= T[(int) a & 255] ^ T[((int) (a >>> 16) & 255) + 256] ^ T[((int) (a >>> 32) & 255) + 512] ^ T[((int) (a >>> 48) & 255) + 768];
+        c += T[((int) (a >>> 8) & 255) + 768] ^ T[((int) (a >>> 24) & 255) + 512] ^ T[((int) (a >>> 40) & 255) + 256] ^ T[(int) (a >>> 56) & 255];
+        c *= 9;
+        b ^= x7;
+        c -= T[(int) b & 255] ^ T[((int) (b >>> 16) & 255) + 256] ^ T[((int) (b >>> 32) & 255) + 512] ^ T[((int) (b >>> 48) & 255) + 768];
+        a += T[((int) (b >>> 8) & 255) + 768] ^ T[((int) (b >>> 24) & 255) + 512] ^ T[((int) (b >>> 40) & 255) + 256] ^ T[(int) (b >>> 56) & 255];
+        a *= 9;
+
+        this.a = a ^ aa;
+        this.b = b - bb;
+        this.c = c + cc;
+    }
+
+    private void Transform(byte[] data, int nPos) {
+        this.Compress((long) LONG_LE.get(data, nPos), (long) LONG_LE.get(data, nPos + 8),
+                (long) LONG_LE.get(data, nPos + 16), (long) LONG_LE.get(data, nPos + 24),
+                (long) LONG_LE.get(data, nPos + 32), (long) LONG_LE.get(data, nPos + 40),
+                (long) LONG_LE.get(data, nPos + 48), (long) LONG_LE.get(data, nPos + 56));
+    }
+
+    private void Transform(ByteBuffer data, int nPos) {
+        this.Compress((long) BUFFER_LONG_LE.get(data, nPos), (long) BUFFER_LONG_LE.get(data, nPos + 8),
+                (long) BUFFER_LONG_LE.get(data, nPos + 16), (long) BUFFER_LONG_LE.get(data, nPos + 24),
+                (long) BUFFER_LONG_LE.get(data, nPos + 32), (long) BUFFER_LONG_LE.get(data, nPos + 40),
+                (long) BUFFER_LONG_LE.get(data, nPos + 48), (long) BUFFER_LONG_LE.get(data, nPos + 56));
     }
 
     private void HashCore(byte[] data, int nStart, int nSize) {
@@ -179,45 +312,135 @@ public class Tiger {
         this.lLen += ((long) nSize);
         byte[] buf = this.buf;
         int nBufPos = this.nBufPos;
-        int nEnd = (nStart + nSize);
-        while (nStart < nEnd) {
-            nToCopy = (64 - nBufPos);
-            if (nToCopy > nSize) {
-                nToCopy = nSize;
-            }
 
+        // completes the block left over from the last call.
+        if (nBufPos > 0) {
+            nToCopy = Math.min(64 - nBufPos, nSize);
             System.arraycopy(data, nStart, buf, nBufPos, nToCopy);
             nStart += nToCopy;
+            nSize -= nToCopy;
             nBufPos += nToCopy;
+            if (nBufPos < 64) {
+                this.nBufPos = nBufPos;
+                return;
+            }
+            this.Transform(buf, 0);
+            nBufPos = 0;
+        }
+
+        // whole blocks are read straight from the callers array.
+        while (nSize >= 64) {
+            this.Transform(data, nStart);
+            nStart += 64;
+            nSize -= 64;
+        }
+
+        System.arraycopy(data, nStart, buf, 0, nSize);
+        this.nBufPos = nSize;
+    }
+
+    private void HashCore(ByteBuffer data, int nStart, int nSize) {
+        int nToCopy;
+        this.lLen += ((long) nSize);
+        byte[] buf = this.buf;
+        int nBufPos = this.nBufPos;
+
+        if (nBufPos > 0) {
+            nToCopy = Math.min(64 - nBufPos, nSize);
+            data.get(nStart, buf, nBufPos, nToCopy);
+            nStart += nToCopy;
             nSize -= nToCopy;
-            if (64 <= nBufPos) {
-                this.ProcessBlock();
-                nBufPos = 0;
-                continue;
+            nBufPos += nToCopy;
+            if (nBufPos < 64) {
+                this.nBufPos = nBufPos;
+                return;
             }
-            break;
+            this.Transform(buf, 0);
+            nBufPos = 0;
+        }
+
+        while (nSize >= 64) {
+            this.Transform(data, nStart);
+            nStart += 64;
+            nSize -= 64;
+        }
+
+        data.get(nStart, buf, 0, nSize);
+        this.nBufPos = nSize;
+    }
+
+    /**
+     * Hashes the prefix byte followed by the data, as used for the leaf and internal hashes of the tree,
+     * without first copying the data behind the prefix. Word i of the message starts at data[nStart + 8i - 1].
+     */
+    private void HashCore(byte prefix, byte[] data, int nStart, int nSize) {
+        int nBlocks = (nSize + 1) / 64;
+        int nPos = nStart - 1;
+        this.lLen = nSize + 1L;
+
+        if (nBlocks > 0) {
+            // the first word is the prefix and the first 7 bytes of data.
+            this.Compress((prefix & 255L) | ((long) LONG_LE.get(data, nStart) << 8),
+                    (long) LONG_LE.get(data, nPos + 8), (long) LONG_LE.get(data, nPos + 16),
+                    (long) LONG_LE.get(data, nPos + 24), (long) LONG_LE.get(data, nPos + 32),
+                    (long) LONG_LE.get(data, nPos + 40), (long) LONG_LE.get(data, nPos + 48),
+                    (long) LONG_LE.get(data, nPos + 56));
+
+            for (int i = 1; i < nBlocks; i++)
+                this.Transform(data, nPos + i * 64);
+
+            this.nBufPos = nSize + 1 - nBlocks * 64;
+            System.arraycopy(data, nPos + nBlocks * 64, this.buf, 0, this.nBufPos);
+        }
+        else {
+            this.buf[0] = prefix;
+            System.arraycopy(data, nStart, this.buf, 1, nSize);
+            this.nBufPos = nSize + 1;
+        }
+    }
+
+    private void HashCore(byte prefix, ByteBuffer data, int nStart, int nSize) {
+        int nBlocks = (nSize + 1) / 64;
+        int nPos = nStart - 1;
+        this.lLen = nSize + 1L;
+
+        if (nBlocks > 0) {
+            this.Compress((prefix & 255L) | ((long) BUFFER_LONG_LE.get(data, nStart) << 8),
+                    (long) BUFFER_LONG_LE.get(data, nPos + 8), (long) BUFFER_LONG_LE.get(data, nPos + 16),
+                    (long) BUFFER_LONG_LE.get(data, nPos + 24), (long) BUFFER_LONG_LE.get(data, nPos + 32),
+                    (long) BUFFER_LONG_LE.get(data, nPos + 40), (long) BUFFER_LONG_LE.get(data, nPos + 48),
+                    (long) BUFFER_LONG_LE.get(data, nPos + 56));
+
+            for (int i = 1; i < nBlocks; i++)
+                this.Transform(data, nPos + i * 64);
+
+            this.nBufPos = nSize + 1 - nBlocks * 64;
+            data.get(nPos + nBlocks * 64, this.buf, 0, this.nBufPos);
+        }
+        else {
+            this.buf[0] = prefix;
+            data.get(nStart, this.buf, 1, nSize);
+            this.nBufPos = nSize + 1;
         }
-        this.nBufPos = nBufPos;
     }
 
-    private byte[] HashFinal() {
+    private void HashFinal(byte[] output, int nOutPos) {
         int nBufPos = this.nBufPos;
         byte[] buf = this.buf;
         buf[nBufPos] = ((byte) 1);
         nBufPos++;
         if (56 <= nBufPos) {
-            Arrays.fill(buf, nBufPos, nBufPos + (64 - nBufPos), (byte) 0);
-            this.ProcessBlock();
+            Arrays.fill(buf, nBufPos, 64, (byte) 0);
+            this.Transform(buf, 0);
             nBufPos = 0;
         }
-        Arrays.fill(buf, nBufPos, nBufPos + ((64 - nBufPos) - 8), (byte) 0);
-        Tiger.LongToBytes((this.lLen << 3), buf, 56);
-        this.ProcessBlock();
-        byte[] result = new byte[24];
-        Tiger.LongToBytes(this.a, result, 0);
-        Tiger.LongToBytes(this.b, result, 8);
-        Tiger.LongToBytes(this.c, result, 16);
-        return result;
+        Arrays.fill(buf, nBufPos, 56, (byte) 0);
+        LONG_LE.set(buf, 56, this.lLen << 3);
+        this.Transform(buf, 0);
+
+        LONG_LE.set(output, nOutPos, this.a);
+        LONG_LE.set(output, nOutPos + 8, this.b);
+        LONG_LE.set(output, nOutPos + 16, this.c);
     }
 
     void Initialize() {
@@ -228,102 +451,92 @@ public class Tiger {
         this.lLen = 0L;
     }
 
-    private static void LongToBytes(long lVal, byte[] buf, int nIdx) {
-        int nEnd = (nIdx + 8);
-        while (nIdx < nEnd) {
-            buf[nIdx] = ((byte) (lVal & 255L));
-            lVal = (lVal >> 8);
-            nIdx++;
-        }
+    private static void CheckRange(int length, int offset, int count) {
+        if (offset < 0 || count < 0 || offset > length - count)
+            throw new IndexOutOfBoundsException("offset " + offset + ", count " + count + ", length " + length);
     }
 
-    private void ProcessBlock() {
-        int nI = 0;
-        int nPos = 0;
-        long[] block = this.block;
-        byte[] buf = this.buf;
-        while (nPos < 64) {
-            block[nI] = ((((((((((long) buf[(nPos + 7)]) << 56) | ((((long) buf[(nPos + 6)]) & 255L) << 48)) | ((((long) buf[(nPos + 5)]) & 255L) << 40)) | ((((long) buf[(nPos + 4)]) & 255L) << 32)) | ((((long) buf[(nPos + 3)]) & 255L) << 24)) | ((((long) buf[(nPos + 2)]) & 255L) << 16)) | ((((long) buf[(nPos + 1)]) & 255L) << 8)) | (((long) buf[nPos]) & 255L));
-            nPos += 8;
-            nI++;
-        }
-        this.Compress();
+    byte[] ComputeHash(byte[] buffer) {
+        // Do some validation
+        if (buffer == null) throw new IllegalArgumentException("buffer");
+
+        byte[] result = new byte[HashSize];
+        ComputeHash(buffer, 0, buffer.length, result, 0);
+        return result;
     }
 
-    private void RoundABC(long x, int mul) {
-        long c = this.c;
-        c ^= x;
-        int ch = ((int) (c >> 32));
-        int cl = ((int) c);
-        this.a -= (((T[(cl & 255)] ^ T[(((cl >> 16) & 255) + 256)]) ^ T[((ch & 255) + 512)]) ^ T[(((ch >> 16) & 255) + 768)]);
-        this.b += (((T[(((cl >> 8) & 255) + 768)] ^ T[(((cl >> 24) & 255) + 512)]) ^ T[(((ch >> 8) & 255) + 256)]) ^ T[((ch >> 24) & 255)]);
-        this.b *= ((long) mul);
-        this.c = c;
+    /**
+     * Hashes a range of the buffer and writes the 24 byte hash into the output, nothing is allocated.
+     */
+    public void ComputeHash(byte[] buffer, int offset, int length, byte[] output, int outputOffset) {
+        CheckRange(buffer.length, offset, length);
+        CheckRange(output.length, outputOffset, HashSize);
+
+        HashCore(buffer, offset, length);
+        HashFinal(output, outputOffset);
+        Initialize();
     }
 
-    private void RoundBCA(long x, int mul) {
-        long a = this.a;
-        a ^= x;
-        int ah = ((int) (a >> 32));
-        int al = ((int) a);
-        this.b -= (((T[(al & 255)] ^ T[(((al >> 16) & 255) + 256)]) ^ T[((ah & 255) + 512)]) ^ T[(((ah >> 16) & 255) + 768)]);
-        this.c += (((T[(((al >> 8) & 255) + 768)] ^ T[(((al >> 24) & 255) + 512)]) ^ T[(((ah >> 8) & 255) + 256)]) ^ T[((ah >> 24) & 255)]);
-        this.c *= ((long) mul);
-        this.a = a;
+    /**
+     * Hashes a range of the buffer and writes the 24 byte hash into the output, the position of the
+     * buffer is not used or changed. Works with heap, direct and mapped buffers.
+     */
+    public void ComputeHash(ByteBuffer buffer, int index, int length, byte[] output, int outputOffset) {
+        CheckRange(buffer.limit(), index, length);
+        CheckRange(output.length, outputOffset, HashSize);
+
+        HashCore(buffer, index, length);
+        HashFinal(output, outputOffset);
+        Initialize();
     }
 
-    private void RoundCAB(long x, int mul) {
-        long b = this.b;
-        b ^= x;
-        int bh = ((int) (b >> 32));
-        int bl = ((int) b);
-        this.c -= (((T[(bl & 255)] ^ T[(((bl >> 16) & 255) + 256)]) ^ T[((bh & 255) + 512)]) ^ T[(((bh >> 16) & 255) + 768)]);
-        this.a += (((T[(((bl >> 8) & 255) + 768)] ^ T[(((bl >> 24) & 255) + 512)]) ^ T[(((bh >> 8) & 255) + 256)]) ^ T[((bh >> 24) & 255)]);
-        this.a *= ((long) mul);
-        this.b = b;
+    /**
+     * Hashes the prefix byte followed by a range of the buffer, used for the leaf (0x00) and internal (0x01)
+     * hashes of the tiger tree without having to copy the data behind the prefix first.
+     */
+    public void ComputeHash(byte prefix, byte[] buffer, int offset, int length, byte[] output, int outputOffset) {
+        CheckRange(buffer.length, offset, length);
+        CheckRange(output.length, outputOffset, HashSize);
+
+        HashCore(prefix, buffer, offset, length);
+        HashFinal(output, outputOffset);
+        Initialize();
     }
 
-    private void Schedule(long[] x) {
-        int _Vb_t_i4_0 = 0;
-        x[_Vb_t_i4_0] -= (x[7] ^ -6510615555426900571L);
-        x[1] = (x[1] ^ x[0]);
-        _Vb_t_i4_0 = 2;
-        x[_Vb_t_i4_0] += x[1];
-        _Vb_t_i4_0 = 3;
-        x[_Vb_t_i4_0] -= (x[2] ^ ((~x[1]) << 19));
-        x[4] = (x[4] ^ x[3]);
-        _Vb_t_i4_0 = 5;
-        x[_Vb_t_i4_0] += x[4];
-        _Vb_t_i4_0 = 6;
-        x[_Vb_t_i4_0] -= (x[5] ^ (((~x[4]) >> 23) & 2199023255551L));
-        x[7] = (x[7] ^ x[6]);
-        _Vb_t_i4_0 = 0;
-        x[_Vb_t_i4_0] += x[7];
-        _Vb_t_i4_0 = 1;
-        x[_Vb_t_i4_0] -= (x[0] ^ ((~x[7]) << 19));
-        x[2] = (x[2] ^ x[1]);
-        _Vb_t_i4_0 = 3;
-        x[_Vb_t_i4_0] += x[2];
-        _Vb_t_i4_0 = 4;
-        x[_Vb_t_i4_0] -= (x[3] ^ (((~x[2]) >> 23) & 2199023255551L));
-        x[5] = (x[5] ^ x[4]);
-        _Vb_t_i4_0 = 6;
-        x[_Vb_t_i4_0] += x[5];
-        _Vb_t_i4_0 = 7;
-        x[_Vb_t_i4_0] -= (x[6] ^ 81985529216486895L);
+    public void ComputeHash(byte prefix, ByteBuffer buffer, int index, int length, byte[] output, int outputOffset) {
+        CheckRange(buffer.limit(), index, length);
+        CheckRange(output.length, outputOffset, HashSize);
+
+        HashCore(prefix, buffer, index, length);
+        HashFinal(output, outputOffset);
+        Initialize();
     }
 
-    byte[] ComputeHash(byte[] buffer) {
-        // Do some validation
-        if (buffer == null) throw new IllegalArgumentException("buffer");
+    /**
+     * Adds a range of the buffer to a message that is given in pieces, the hash of all pieces together is
+     * taken with Digest. Must not be mixed with ComputeHash on the same instance between the two.
+     */
+    public void Update(byte[] buffer, int offset, int length) {
+        CheckRange(buffer.length, offset, length);
+        HashCore(buffer, offset, length);
+    }
+
+    /**
+     * Adds a range of the buffer to the message, the position of the buffer is not used or changed.
+     */
+    public void Update(ByteBuffer buffer, int index, int length) {
+        CheckRange(buffer.limit(), index, length);
+        HashCore(buffer, index, length);
+    }
 
-        HashCore(buffer, 0, buffer.length);
-        HashValue = HashFinal();
-        byte[] tmp = new byte[HashValue.length];
-        System.arraycopy(HashValue, 0, tmp, 0, HashValue.length);
+    /**
+     * Writes the hash of everything given to Update since the last Digest into the output and starts over.
+     */
+    public void Digest(byte[] output, int outputOffset) {
+        CheckRange(output.length, outputOffset, HashSize);
 
+        HashFinal(output, outputOffset);
         Initialize();
-        return (tmp);
     }
 
     public static void main(String[] args) throws UnsupportedEncodingException {
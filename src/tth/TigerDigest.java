@@ -0,0 +1,57 @@
+package tth;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * The Tiger hash as a MessageDigest, so the whole file Tiger can be taken next to any digest of the
+ * platform (SHA-256, MD5, ...) by code that only knows MessageDigest.
+ *
+ * Buffers are hashed where they are, a direct buffer is not copied into an array first.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class TigerDigest extends MessageDigest {
+
+    private final Tiger TG = new Tiger();
+    private final byte[] Single = new byte[1];
+
+    public TigerDigest() {
+        super("Tiger");
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return Tiger.HashSize;
+    }
+
+    @Override
+    protected void engineUpdate(byte Input) {
+        Single[0] = Input;
+        TG.Update(Single, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] Input, int Offset, int Length) {
+        TG.Update(Input, Offset, Length);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer Input) {
+        TG.Update(Input, Input.position(), Input.remaining());
+        Input.position(Input.limit());
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        byte[] Hash = new byte[Tiger.HashSize];
+        TG.Digest(Hash, 0);
+        return Hash;
+    }
+
+    @Override
+    protected void engineReset() {
+        TG.Initialize();
+    }
+}
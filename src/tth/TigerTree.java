@@ -0,0 +1,297 @@
+package tth;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Java Tiger Tree Hash Streaming
+ *
+ * Incremental hasher, data can be given in chunks of any size through update() and the root is
+ * returned by digest(). Every leaf is hashed as soon as it is complete and completed subtrees are
+ * merged on a stack, so no more than one hash per level of the tree is kept in memory no matter
+ * how big the input is. This allows hashing of sockets, pipes and generated data without a file.
+ *
+ * The root is the same as the one given by ThexOptimized and ThexThreaded for the same data.
+ *
+ * The program takes one argument,
+ * File to hash (optional), standard input is hashed when no file is given.
+ *
+ * @author Dion Woolley, woolley.dion@gmail.com
+ */
+
+public class TigerTree {
+
+    private static final byte LeafHash = 0x00;
+    private static final byte InternalHash = 0x01;
+    static final int LeafSize = 1024; // Do not change this value
+    static final int HashSize = 24;
+    private static final int MaxLevels = 64; // 2^63 leafs, more then a long can count bytes for.
+
+    private final Tiger TG = new Tiger();
+    private final byte[] Leaf = new byte[LeafSize]; // data of the leaf that isn't complete yet.
+    private int LeafPos;
+
+    private final byte[] Stack = new byte[MaxLevels * HashSize]; // subtree roots, oldest first.
+    private final int[] StackLevel = new int[MaxLevels]; // level of each subtree root on the stack.
+    private int StackCount;
+    private long ByteCount;
+
+    public TigerTree() {
+        reset();
+    }
+
+    /**
+     * Hashes the given data as the continuation of all the data given so far.
+     *
+     * @param data array holding the data
+     * @param offset offset of the first byte to hash
+     * @param length number of bytes to hash
+     */
+    public void update(byte[] data, int offset, int length) {
+        if (data == null) throw new IllegalArgumentException("data");
+        if (offset < 0 || length < 0 || offset + length > data.length || offset + length < 0)
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+
+        ByteCount += length;
+
+        while (length > 0) {
+            // whole leafs are hashed straight from the callers array.
+            if (LeafPos == 0 && length >= LeafSize) {
+                TG.ComputeHash(LeafHash, data, offset, LeafSize, Stack, StackCount * HashSize);
+                PushLeaf();
+                offset += LeafSize;
+                length -= LeafSize;
+                continue;
+            }
+
+            int ToCopy = Math.min(LeafSize - LeafPos, length);
+
+            System.arraycopy(data, offset, Leaf, LeafPos, ToCopy);
+            LeafPos += ToCopy;
+            offset += ToCopy;
+            length -= ToCopy;
+
+            if (LeafPos == LeafSize) {
+                TG.ComputeHash(LeafHash, Leaf, 0, LeafSize, Stack, StackCount * HashSize);
+                PushLeaf();
+            }
+        }
+    }
+
+    /**
+     * Hashes all the remaining bytes of the buffer, the position of the buffer is moved to its limit.
+     *
+     * @param data buffer holding the data
+     */
+    public void update(ByteBuffer data) {
+        if (data == null) throw new IllegalArgumentException("data");
+
+        ByteCount += data.remaining();
+
+        while (data.hasRemaining()) {
+            if (LeafPos == 0 && data.remaining() >= LeafSize) {
+                TG.ComputeHash(LeafHash, data, data.position(), LeafSize, Stack, StackCount * HashSize);
+                PushLeaf();
+                data.position(data.position() + LeafSize);
+                continue;
+            }
+
+            int ToCopy = Math.min(LeafSize - LeafPos, data.remaining());
+
+            data.get(Leaf, LeafPos, ToCopy);
+            LeafPos += ToCopy;
+
+            if (LeafPos == LeafSize) {
+                TG.ComputeHash(LeafHash, Leaf, 0, LeafSize, Stack, StackCount * HashSize);
+                PushLeaf();
+            }
+        }
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    /**
+     * Completes the tree and returns its root, the hasher is reset afterwards so it can be used again.
+     *
+     * @return root of the tree
+     */
+    public byte[] digest() {
+        byte[] Root = new byte[HashSize];
+        digest(Root, 0);
+
+        return Root;
+    }
+
+    /**
+     * Completes the tree and writes its root into the output, the hasher is reset afterwards.
+     *
+     * @param output array the 24 byte root is written to
+     * @param offset offset in the output of the first byte of the root
+     */
+    public void digest(byte[] output, int offset) {
+        // a zero byte input still has a single (empty) leaf.
+        if (LeafPos > 0 || ByteCount == 0) {
+            TG.ComputeHash(LeafHash, Leaf, 0, LeafPos, Stack, StackCount * HashSize);
+            StackLevel[StackCount++] = 0;
+        }
+
+        // the right most subtrees don't have a pair, they are promoted and combined from the top down.
+        while (StackCount > 1) {
+            StackCount--;
+            Merge(StackCount - 1);
+        }
+
+        System.arraycopy(Stack, 0, output, offset, HashSize);
+        reset();
+    }
+
+    public void reset() {
+        LeafPos = 0;
+        StackCount = 0;
+        ByteCount = 0;
+    }
+
+    /**
+     * @return number of bytes hashed since the last reset.
+     */
+    public long length() {
+        return ByteCount;
+    }
+
+    /**
+     * Takes the root of a whole subtree of 2^Level leafs that was hashed elsewhere as the continuation of the
+     * data given so far, which has to end on a multiple of the subtree. Only the last subtree of the input can
+     * have less bytes, nothing can be given after it but the digest.
+     *
+     * @param Bytes number of bytes under the subtree
+     */
+    void UpdateRoot(byte[] Root, int Offset, int Level, long Bytes) {
+        long Size = SubtreeSize(Level);
+
+        if (Size < 0 || Bytes <= 0 || Bytes > Size)
+            throw new IllegalArgumentException("level " + Level + ", bytes " + Bytes);
+        if (LeafPos > 0 || ByteCount % Size != 0)
+            throw new IllegalStateException("the data so far doesn't end on a subtree of level " + Level);
+
+        System.arraycopy(Root, Offset, Stack, StackCount * HashSize, HashSize);
+        StackLevel[StackCount++] = Level;
+        ByteCount += Bytes;
+        Collapse();
+    }
+
+    /**
+     * Writes everything needed to continue the tree later: the byte count, the incomplete leaf and the
+     * subtree roots on the stack, at most a few KB.
+     */
+    void WriteState(DataOutput Output) throws IOException {
+        Output.writeLong(ByteCount);
+        Output.writeShort(LeafPos);
+        Output.write(Leaf, 0, LeafPos);
+        Output.writeByte(StackCount);
+
+        for (int i = 0; i < StackCount; i++) {
+            Output.writeByte(StackLevel[i]);
+            Output.write(Stack, i * HashSize, HashSize);
+        }
+    }
+
+    /**
+     * Continues the tree from a state written by WriteState, the input is checked to be a state that
+     * WriteState can have written.
+     */
+    void ReadState(DataInput Input) throws IOException {
+        reset();
+
+        long Bytes = Input.readLong();
+        int Pos = Input.readUnsignedShort();
+        if (Bytes < 0 || Pos >= LeafSize) throw new IOException("broken tree state");
+        Input.readFully(Leaf, 0, Pos);
+
+        int Count = Input.readUnsignedByte();
+        if (Count > MaxLevels) throw new IOException("broken tree state");
+
+        // the subtrees of a stack only get smaller and cover the bytes before the incomplete leaf.
+        long Covered = Pos;
+        for (int i = 0; i < Count; i++) {
+            StackLevel[i] = Input.readUnsignedByte();
+            Input.readFully(Stack, i * HashSize, HashSize);
+
+            if (SubtreeSize(StackLevel[i]) < 0 || (i > 0 && StackLevel[i] >= StackLevel[i - 1]))
+                throw new IOException("broken tree state");
+            Covered += SubtreeSize(StackLevel[i]);
+        }
+        if (Covered != Bytes) throw new IOException("broken tree state");
+
+        ByteCount = Bytes;
+        LeafPos = Pos;
+        StackCount = Count;
+    }
+
+    /**
+     * @return bytes under a whole subtree of the level, or -1 when a long can't count them
+     */
+    private static long SubtreeSize(int Level) {
+        // 2^62 is the biggest power of two a long holds, the leafs of 1024 bytes take 10 of that.
+        return (Level < 0 || Level > 62 - 10) ? -1 : (long) LeafSize << Level;
+    }
+
+    private void PushLeaf() {
+        // the leaf hash has already been written on top of the stack.
+        StackLevel[StackCount++] = 0;
+        LeafPos = 0;
+        Collapse();
+    }
+
+    private void Collapse() {
+        // merges the completed subtrees, two roots of the same level make the root of the next level.
+        while (StackCount > 1 && StackLevel[StackCount - 1] == StackLevel[StackCount - 2]) {
+            StackCount--;
+            Merge(StackCount - 1);
+            StackLevel[StackCount - 1]++;
+        }
+    }
+
+    private void Merge(int Left) {
+        // the two hashes are next to each other on the stack, the combined hash replaces the left one.
+        TG.ComputeHash(InternalHash, Stack, Left * HashSize, HashSize * 2, Stack, Left * HashSize);
+    }
+
+    public static void main(String[] args) {
+        TigerTree tree = new TigerTree();
+        byte[] buffer = new byte[LeafSize * 64];
+        byte[] result;
+        Instant start;
+        Instant end;
+        int read;
+
+        boolean fromFile = !(args.length < 1) && !args[0].isEmpty();
+        String name = fromFile ? args[0] : "standard input";
+
+        try (InputStream input = fromFile ? new FileInputStream(name) : System.in) {
+            System.out.println("Start hashing: " + name);
+            start = Instant.now();
+
+            while ((read = input.read(buffer, 0, buffer.length)) != -1)
+                tree.update(buffer, 0, read);
+
+            long length = tree.length();
+            result = tree.digest();
+            end = Instant.now();
+
+            System.out.println("Finished hashing " + length + " bytes from: " + name);
+            System.out.println("TTH: " + Base32.encode(result));
+            System.out.println("TimeTaken: " + Duration.between(start, end));
+        } catch (IOException e) {
+            System.err.println("Something went wrong trying to hash: " + name);
+            e.printStackTrace();
+        }
+    }
+}
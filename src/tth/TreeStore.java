@@ -0,0 +1,124 @@
+package tth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Every level of a tiger tree, packed.
+ *
+ * The hashes of a level are stored next to each other, 24 bytes per node and nothing else, and are indexed
+ * by a long so a tree of more then 2^31 leafs fits. A level is split into pages of 2^20 hashes (24 MB) as
+ * no single buffer can hold more then 2 GB. The pages are on the heap, off the heap in direct buffers, or
+ * mapped from a temporary file, so a tree that doesn't fit in memory is paged out by the operating system.
+ * The file is closed once it is mapped, it is gone when the last page is collected.
+ *
+ * Different threads can read and write different hashes at the same time.
+ */
+
+class TreeStore {
+
+    enum Backing { Heap, Direct, Mapped }
+
+    static final int HashSize = 24;
+    private static final int PageShift = 20; // hashes per page as a power of two.
+    private static final int PageHashes = 1 << PageShift;
+
+    private final long[] Counts;
+    private final ByteBuffer[][] Pages;
+
+    /**
+     * @param LeafCount hashes of the lowest level, every level above it has half as many rounded up
+     */
+    TreeStore(long LeafCount, Backing Backing) throws IOException {
+        int Levels = 64 - Long.numberOfLeadingZeros(LeafCount - 1) + 1;
+
+        Counts = new long[Levels];
+        Pages = new ByteBuffer[Levels][];
+
+        for (int Level = 0; Level < Levels; Level++)
+            Counts[Level] = (Level == 0) ? LeafCount : (Counts[Level - 1] + 1) / 2;
+
+        if (Backing != TreeStore.Backing.Mapped) {
+            Allocate(Backing, null);
+            return;
+        }
+
+        // the mappings stay valid after the channel is closed, on Unix the file is unlinked when it is opened.
+        Path File = Files.createTempFile("tth", ".tree");
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            Allocate(Backing, Channel);
+        }
+    }
+
+    private void Allocate(Backing Backing, FileChannel Channel) throws IOException {
+        long FileOffset = 0;
+
+        for (int Level = 0; Level < Counts.length; Level++) {
+            Pages[Level] = new ByteBuffer[(int) ((Counts[Level] + PageHashes - 1) >>> PageShift)];
+
+            for (int Page = 0; Page < Pages[Level].length; Page++) {
+                int Size = (int) Math.min(PageHashes, Counts[Level] - ((long) Page << PageShift)) * HashSize;
+
+                if (Backing == TreeStore.Backing.Heap)
+                    Pages[Level][Page] = ByteBuffer.allocate(Size);
+                else if (Backing == TreeStore.Backing.Direct)
+                    Pages[Level][Page] = ByteBuffer.allocateDirect(Size);
+                else
+                    Pages[Level][Page] = Channel.map(FileChannel.MapMode.READ_WRITE, FileOffset, Size);
+
+                FileOffset += Size;
+            }
+        }
+    }
+
+    int Levels() {
+        return Counts.length;
+    }
+
+    long Count(int Level) {
+        return Counts[Level];
+    }
+
+    byte[] Get(int Level, long Index) {
+        byte[] Hash = new byte[HashSize];
+        Get(Level, Index, Hash, 0, 1);
+        return Hash;
+    }
+
+    /**
+     * Copies Count hashes of the level starting at Index into the output.
+     */
+    void Get(int Level, long Index, byte[] Output, int Offset, int Count) {
+        while (Count > 0) {
+            ByteBuffer Page = Pages[Level][(int) (Index >>> PageShift)];
+            int PageIndex = (int) (Index & (PageHashes - 1));
+            int Hashes = Math.min(Count, Page.capacity() / HashSize - PageIndex);
+
+            Page.get(PageIndex * HashSize, Output, Offset, Hashes * HashSize);
+            Index += Hashes;
+            Offset += Hashes * HashSize;
+            Count -= Hashes;
+        }
+    }
+
+    /**
+     * Copies Count hashes from the input into the level starting at Index.
+     */
+    void Put(int Level, long Index, byte[] Input, int Offset, int Count) {
+        while (Count > 0) {
+            ByteBuffer Page = Pages[Level][(int) (Index >>> PageShift)];
+            int PageIndex = (int) (Index & (PageHashes - 1));
+            int Hashes = Math.min(Count, Page.capacity() / HashSize - PageIndex);
+
+            Page.put(PageIndex * HashSize, Input, Offset, Hashes * HashSize);
+            Index += Hashes;
+            Offset += Hashes * HashSize;
+            Count -= Hashes;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package tth;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hashes of data that is all zeros.
+ *
+ * The tree is the same wherever the data is, so the hash of a leaf of 1024 zero bytes and of every whole
+ * subtree of 2^k such leafs is known up front: level 0 is the zero leaf and every level above it is the
+ * internal hash of two of the level below. Sparse disk images and preallocated files are mostly zeros,
+ * finding a zero run with a scan and taking these hashes over is many times faster than hashing it.
+ */
+
+final class ZeroHashes {
+
+    private static final int HashSize = Tiger.HashSize;
+    private static final int LeafSize = 1024;
+    static final int Levels = 64; // more then a tree of Long.MAX_VALUE bytes has.
+    static final int Group = 4; // leafs or pairs that are checked at once.
+
+    // the hash of every level, Group times next to each other.
+    private static final byte[][] Hashes = new byte[Levels][HashSize * Group];
+    private static final byte[] Zeros = new byte[LeafSize * Group];
+
+    static {
+        Tiger TG = new Tiger();
+        byte[] Pair = new byte[HashSize * 2];
+
+        TG.ComputeHash((byte) 0x00, Zeros, 0, LeafSize, Hashes[0], 0);
+        for (int Level = 1; Level < Levels; Level++) {
+            System.arraycopy(Hashes[Level - 1], 0, Pair, 0, HashSize);
+            System.arraycopy(Hashes[Level - 1], 0, Pair, HashSize, HashSize);
+            TG.ComputeHash((byte) 0x01, Pair, 0, Pair.length, Hashes[Level], 0);
+        }
+
+        for (byte[] Level : Hashes)
+            for (int Copy = 1; Copy < Group; Copy++)
+                System.arraycopy(Level, 0, Level, Copy * HashSize, HashSize);
+    }
+
+    private ZeroHashes() {
+    }
+
+    /**
+     * @return the hash of a whole zero subtree of 2^Level leafs Group times, not to be written to
+     */
+    static byte[] Hashes(int Level) {
+        return Hashes[Level];
+    }
+
+    /**
+     * @return true when the Count hashes in the data are all the hash of a zero subtree of the level
+     */
+    static boolean Matches(byte[] Data, int Offset, int Count, int Level) {
+        for (int i = 0; i < Count; i++)
+            if (!Arrays.equals(Data, Offset + i * HashSize, Offset + (i + 1) * HashSize, Hashes[Level], 0, HashSize))
+                return false;
+        return true;
+    }
+
+    /**
+     * Scans the bytes a word at a time, the scan ends at the first word that isn't zero.
+     * An array backed buffer is compared with the vectorized Arrays.mismatch in pieces of the lane width.
+     */
+    static boolean IsZero(ByteBuffer Data, int Offset, int Length) {
+        if (Data.hasArray()) {
+            byte[] Array = Data.array();
+            int Start = Data.arrayOffset() + Offset;
+
+            for (int i = 0; i < Length; i += Zeros.length) {
+                int Piece = Math.min(Zeros.length, Length - i);
+                if (Arrays.mismatch(Array, Start + i, Start + i + Piece, Zeros, 0, Piece) >= 0) return false;
+            }
+            return true;
+        }
+
+        int i = 0;
+        for (; i + Long.BYTES <= Length; i += Long.BYTES)
+            if (Data.getLong(Offset + i) != 0) return false;
+        for (; i < Length; i++)
+            if (Data.get(Offset + i) != 0) return false;
+        return true;
+    }
+}